@@ -97,6 +97,7 @@ public class Commands implements CommandExecutor, TabCompleter {
             if (sender.hasPermission("imageframe.update")) {
                 sender.sendMessage(ChatColor.DARK_AQUA + "[ImageFrame] ImageFrame written by LOOHP!");
                 sender.sendMessage(ChatColor.GOLD + "[ImageFrame] You are running ImageFrame version: " + ImageFrame.plugin.getDescription().getVersion());
+                sender.sendMessage(ChatColor.GOLD + "[ImageFrame] Superseded map packets elided: " + ImageFrame.rateLimitedPacketSendingManager.getElidedPacketCount());
             } else {
                 sender.sendMessage(ImageFrame.messageNoPermission);
             }
@@ -590,8 +591,8 @@ public class Commands implements CommandExecutor, TabCompleter {
                                                 try {
                                                     sender.sendMessage(ImageFrame.messageMarkersRemove);
                                                     Bukkit.getPluginManager().callEvent(new ImageMapUpdatedEvent(imageMap));
+                                                    imageMap.markDirty();
                                                     imageMap.send(imageMap.getViewers());
-                                                    imageMap.save();
                                                 } catch (Exception e) {
                                                     e.printStackTrace();
                                                 }
@@ -615,8 +616,8 @@ public class Commands implements CommandExecutor, TabCompleter {
                                             imageMap.getMapMarkers().forEach(each -> each.clear());
                                             sender.sendMessage(ImageFrame.messageMarkersClear);
                                             Bukkit.getPluginManager().callEvent(new ImageMapUpdatedEvent(imageMap));
+                                            imageMap.markDirty();
                                             imageMap.send(imageMap.getViewers());
-                                            imageMap.save();
                                         } catch (Exception e) {
                                             e.printStackTrace();
                                         }
@@ -849,7 +850,7 @@ public class Commands implements CommandExecutor, TabCompleter {
                                             ItemStack currentItem = inventory.getItem(i);
                                             MapView currentMapView = MapUtils.getItemMapView(currentItem);
                                             if (currentMapView != null) {
-                                                if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+                                                if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                                                     inventory.setItem(i, new ItemStack(Material.MAP, currentItem.getAmount()));
                                                 }
                                             }
@@ -1069,7 +1070,7 @@ public class Commands implements CommandExecutor, TabCompleter {
                                             ItemStack currentItem = inventory.getItem(i);
                                             MapView currentMapView = MapUtils.getItemMapView(currentItem);
                                             if (currentMapView != null) {
-                                                if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+                                                if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                                                     inventory.setItem(i, new ItemStack(Material.MAP, currentItem.getAmount()));
                                                 }
                                             }
@@ -32,12 +32,18 @@ import com.loohp.imageframe.objectholders.ImageMapManager;
 import com.loohp.imageframe.objectholders.IntRange;
 import com.loohp.imageframe.objectholders.IntRangeList;
 import com.loohp.imageframe.objectholders.ItemFrameSelectionManager;
+import com.loohp.imageframe.objectholders.MapClientStateManager;
+import com.loohp.imageframe.objectholders.MapColorQuantizer;
 import com.loohp.imageframe.objectholders.MapMarkerEditManager;
+import com.loohp.imageframe.objectholders.PackedAnimationFrameStore;
+import com.loohp.imageframe.objectholders.PacketOnlyMapDeliveryManager;
+import com.loohp.imageframe.objectholders.ParallelImageProcessor;
 import com.loohp.imageframe.objectholders.RateLimitedPacketSendingManager;
 import com.loohp.imageframe.objectholders.Scheduler;
 import com.loohp.imageframe.objectholders.UnsetState;
 import com.loohp.imageframe.utils.ChatColorUtils;
 import com.loohp.imageframe.utils.MCVersion;
+import com.loohp.imageframe.utils.MapUtils;
 import com.twelvemonkeys.imageio.plugins.webp.WebPImageReaderSpi;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -141,13 +147,51 @@ public class ImageFrame extends JavaPlugin {
 
     public static boolean mapRenderersContextual;
     public static boolean sendAnimatedMapsOnMainThread;
-
+    public static int imageProcessingThreads;
+    public static boolean memoryMappedAnimations;
+    public static boolean backupLegacyImageFiles;
+    public static int saveDelay;
+    public static boolean lazyMapData;
+    public static int lazyMapDataIdleUnloadTime;
+    public static boolean partialMapUpdates;
+    public static boolean suppressRedundantMapPackets;
+    public static boolean bundleMapPackets;
+    public static boolean packetOnlyMapDelivery;
+    public static long mapPacketGlobalBandwidth;
+    public static double mapPacketBandwidthBurstSeconds;
+    public static Map<String, Long> mapPacketBandwidthGroups;
+
+    public static MapColorQuantizer mapColorQuantizer;
+    public static ParallelImageProcessor imageProcessor;
     public static ImageMapManager imageMapManager;
     public static IFPlayerManager ifPlayerManager;
     public static ItemFrameSelectionManager itemFrameSelectionManager;
     public static MapMarkerEditManager mapMarkerEditManager;
     public static CombinedMapItemHandler combinedMapItemHandler;
     public static RateLimitedPacketSendingManager rateLimitedPacketSendingManager;
+    public static MapClientStateManager mapClientStateManager;
+    public static PacketOnlyMapDeliveryManager packetOnlyMapDeliveryManager;
+
+    public static long getPlayerBandwidthLimit(Player player) {
+        if (player.hasPermission("imageframe.bandwidth.unlimited")) {
+            return -1;
+        }
+        long limit = Long.MIN_VALUE;
+        for (Map.Entry<String, Long> entry : mapPacketBandwidthGroups.entrySet()) {
+            if (player.hasPermission("imageframe.bandwidth." + entry.getKey())) {
+                long value = entry.getValue();
+                if (value < 0) {
+                    return -1;
+                } else if (value > limit) {
+                    limit = value;
+                }
+            }
+        }
+        if (limit == Long.MIN_VALUE) {
+            return mapPacketBandwidthGroups.getOrDefault("default", -1L);
+        }
+        return limit;
+    }
 
     public static boolean isURLAllowed(String url) {
         if (!restrictImageUrlEnabled) {
@@ -255,12 +299,23 @@ public class ImageFrame extends JavaPlugin {
         getServer().getPluginManager().registerEvents(new Debug(), this);
         getServer().getPluginManager().registerEvents(new Events(), this);
 
+        mapColorQuantizer = new MapColorQuantizer(new File(getDataFolder(), "cache/mapcolors-" + version.getPackageName() + ".bin"));
+        Scheduler.runTaskAsynchronously(this, () -> {
+            try {
+                mapColorQuantizer.loadOrBuild();
+            } catch (IOException e) {
+                getServer().getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to save map color lookup table to " + mapColorQuantizer.getFile().getAbsolutePath());
+                e.printStackTrace();
+            }
+        });
         imageMapManager = new ImageMapManager(new File(getDataFolder(), "data"));
         ifPlayerManager = new IFPlayerManager(new File(getDataFolder(), "players"));
         itemFrameSelectionManager = new ItemFrameSelectionManager();
         mapMarkerEditManager = new MapMarkerEditManager();
         combinedMapItemHandler = new CombinedMapItemHandler();
         rateLimitedPacketSendingManager = new RateLimitedPacketSendingManager();
+        mapClientStateManager = new MapClientStateManager();
+        packetOnlyMapDeliveryManager = new PacketOnlyMapDeliveryManager();
         imageMapManager.loadMapsAsync();
 
         getServer().getConsoleSender().sendMessage(ChatColor.GREEN + "[ImageFrame] ImageFrame has been Enabled!");
@@ -280,6 +335,15 @@ public class ImageFrame extends JavaPlugin {
         if (combinedMapItemHandler != null) {
             combinedMapItemHandler.close();
         }
+        if (mapClientStateManager != null) {
+            mapClientStateManager.close();
+        }
+        if (packetOnlyMapDeliveryManager != null) {
+            packetOnlyMapDeliveryManager.close();
+        }
+        if (imageProcessor != null) {
+            imageProcessor.close();
+        }
         getServer().getScheduler().cancelTasks(this);
         getServer().getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] ImageFrame has been Disabled!");
     }
@@ -383,12 +447,46 @@ public class ImageFrame extends JavaPlugin {
                 return null;
             }
         }).filter(v -> v != null).collect(Collectors.toCollection(IntRangeList::new));
+        if (imageMapManager != null) {
+            imageMapManager.rebuildDeletedMapLookup();
+        }
 
         rateLimit = config.getConfiguration().getInt("Settings.MapPacketSendingRateLimit");
+        partialMapUpdates = config.getConfiguration().getBoolean("Settings.PartialMapUpdates");
+        suppressRedundantMapPackets = config.getConfiguration().getBoolean("Settings.SuppressRedundantMapPackets");
+        bundleMapPackets = config.getConfiguration().getBoolean("Settings.BundleMapPackets");
+        packetOnlyMapDelivery = config.getConfiguration().getBoolean("Settings.PacketOnlyMapDelivery");
+        mapPacketGlobalBandwidth = config.getConfiguration().getLong("Settings.MapPacketBandwidth.Global");
+        mapPacketBandwidthBurstSeconds = config.getConfiguration().getDouble("Settings.MapPacketBandwidth.BurstSeconds");
+        mapPacketBandwidthGroups = new HashMap<>();
+        for (String group : config.getConfiguration().getConfigurationSection("Settings.MapPacketBandwidth.Groups").getKeys(false)) {
+            mapPacketBandwidthGroups.put(group, config.getConfiguration().getLong("Settings.MapPacketBandwidth.Groups." + group));
+        }
+        if (rateLimitedPacketSendingManager != null) {
+            rateLimitedPacketSendingManager.updateBandwidthLimits();
+        }
 
         mapRenderersContextual = config.getConfiguration().getBoolean("Settings.MapRenderersContextual");
         sendAnimatedMapsOnMainThread = config.getConfiguration().getBoolean("Settings.SendAnimatedMapsOnMainThread");
 
+        saveDelay = config.getConfiguration().getInt("Settings.SaveDelay");
+        lazyMapData = config.getConfiguration().getBoolean("Settings.LazyMapData.Enabled");
+        lazyMapDataIdleUnloadTime = config.getConfiguration().getInt("Settings.LazyMapData.IdleUnloadTime");
+
+        memoryMappedAnimations = config.getConfiguration().getBoolean("Settings.MemoryMappedAnimations");
+        backupLegacyImageFiles = config.getConfiguration().getBoolean("Settings.BackupLegacyImageFiles");
+        PackedAnimationFrameStore.setHotFrameCacheSize(config.getConfiguration().getInt("Settings.AnimationHotFrameCacheSize"));
+        MapUtils.setMapPacketCacheSize(config.getConfiguration().getInt("Settings.MapPacketCacheSize"));
+
+        imageProcessingThreads = config.getConfiguration().getInt("Settings.ImageProcessingThreads");
+        if (imageProcessor == null || imageProcessor.getThreads() != ParallelImageProcessor.resolveThreads(imageProcessingThreads)) {
+            ParallelImageProcessor oldImageProcessor = imageProcessor;
+            imageProcessor = new ParallelImageProcessor(imageProcessingThreads);
+            if (oldImageProcessor != null) {
+                oldImageProcessor.close();
+            }
+        }
+
         if (updaterTask != null) {
             updaterTask.cancel();
         }
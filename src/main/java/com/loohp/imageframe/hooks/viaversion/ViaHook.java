@@ -26,10 +26,16 @@ import org.bukkit.entity.Player;
 public class ViaHook {
 
     public static final int MAP_ID_EXPANSION_VERSION = 346;
+    public static final int BUNDLE_PACKET_VERSION = 762;
 
     public static boolean isPlayerLegacy(Player player) {
         int version = Via.getAPI().getPlayerVersion(player.getUniqueId());
         return version >= 0 && version < MAP_ID_EXPANSION_VERSION;
     }
 
+    public static boolean isPlayerBundleSupported(Player player) {
+        int version = Via.getAPI().getPlayerVersion(player.getUniqueId());
+        return version < 0 || version >= BUNDLE_PACKET_VERSION;
+    }
+
 }
@@ -60,7 +60,7 @@ public class Events implements Listener {
         ItemStack currentItem = event.getCurrentItem();
         MapView currentMapView = MapUtils.getItemMapView(currentItem);
         if (currentMapView != null) {
-            if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+            if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                 event.setCurrentItem(new ItemStack(Material.MAP, currentItem.getAmount()));
             }
         }
@@ -165,7 +165,7 @@ public class Events implements Listener {
         ItemStack currentItem = inventory.getItem(slot);
         MapView currentMapView = MapUtils.getItemMapView(currentItem);
         if (currentMapView != null) {
-            if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+            if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                 inventory.setItem(slot, new ItemStack(Material.MAP, currentItem.getAmount()));
             }
         }
@@ -181,7 +181,7 @@ public class Events implements Listener {
         ItemStack currentItem = equipment.getItem(hand);
         MapView currentMapView = MapUtils.getItemMapView(currentItem);
         if (currentMapView != null) {
-            if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+            if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                 equipment.setItem(hand, new ItemStack(Material.MAP, currentItem.getAmount()));
             }
         }
@@ -194,7 +194,7 @@ public class Events implements Listener {
         ItemStack currentItem = equipment.getItem(hand);
         MapView currentMapView = MapUtils.getItemMapView(currentItem);
         if (currentMapView != null) {
-            if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+            if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                 equipment.setItem(hand, new ItemStack(Material.MAP, currentItem.getAmount()));
             }
         }
@@ -205,7 +205,7 @@ public class Events implements Listener {
             ItemStack itemStack = itemFrame.getItem();
             MapView mapView = MapUtils.getItemMapView(itemStack);
             if (mapView != null) {
-                if (ImageFrame.imageMapManager.isMapDeleted(mapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(mapView.getId())) {
+                if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(mapView)) {
                     itemFrame.setItem(new ItemStack(Material.MAP, itemStack.getAmount()), false);
                 }
             }
@@ -220,7 +220,7 @@ public class Events implements Listener {
             ItemStack itemStack = itemFrame.getItem();
             MapView mapView = MapUtils.getItemMapView(itemStack);
             if (mapView != null) {
-                if (ImageFrame.imageMapManager.isMapDeleted(mapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(mapView.getId())) {
+                if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(mapView)) {
                     itemFrame.setItem(new ItemStack(Material.MAP, itemStack.getAmount()), false);
                 }
             }
@@ -233,7 +233,7 @@ public class Events implements Listener {
         ItemStack currentItem = item.getItemStack();
         MapView currentMapView = MapUtils.getItemMapView(currentItem);
         if (currentMapView != null) {
-            if (ImageFrame.imageMapManager.isMapDeleted(currentMapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(currentMapView.getId())) {
+            if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(currentMapView)) {
                 item.setItemStack(new ItemStack(Material.MAP, currentItem.getAmount()));
             }
         }
@@ -247,7 +247,7 @@ public class Events implements Listener {
                 ItemStack itemStack = itemFrame.getItem();
                 MapView mapView = MapUtils.getItemMapView(itemStack);
                 if (mapView != null) {
-                    if (ImageFrame.imageMapManager.isMapDeleted(mapView) && !ImageFrame.exemptMapIdsFromDeletion.satisfies(mapView.getId())) {
+                    if (ImageFrame.imageMapManager.isMapDeletedAndNotExempt(mapView)) {
                         Scheduler.runTask(ImageFrame.plugin, () -> itemFrame.setItem(new ItemStack(Material.MAP, itemStack.getAmount()), false), itemFrame);
                     }
                 }
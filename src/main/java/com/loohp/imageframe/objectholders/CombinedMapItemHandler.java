@@ -324,6 +324,9 @@ public class CombinedMapItemHandler implements Listener, AutoCloseable {
         if (player == null || itemFrames.stream().allMatch(each -> PlayerUtils.isDamageAllowed(player, each))) {
             itemFrames.forEach(each -> each.setItem(null, false));
             itemFrame.setItem(getCombinedMap(imageMap), false);
+            MapSendPriorityTracker priorityTracker = ImageFrame.rateLimitedPacketSendingManager.getPriorityTracker();
+            itemFrames.forEach(each -> priorityTracker.trackFrame(each));
+            priorityTracker.trackFrame(itemFrame);
         } else {
             player.sendMessage(ImageFrame.messageItemFrameOccupied);
         }
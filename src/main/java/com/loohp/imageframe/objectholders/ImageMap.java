@@ -26,6 +26,7 @@ import com.google.gson.JsonObject;
 import com.loohp.imageframe.ImageFrame;
 import com.loohp.imageframe.utils.MapUtils;
 import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.Rotation;
 import org.bukkit.entity.ItemFrame;
@@ -34,19 +35,27 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.MapMeta;
 import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapCursor;
+import org.bukkit.map.MapCursorCollection;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 import org.bukkit.util.Vector;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
@@ -60,15 +69,38 @@ public abstract class ImageMap {
     public static final String UNKNOWN_CREATOR_NAME = "???";
     public static final Gson GSON = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
 
-    @SuppressWarnings("unchecked")
+    private static final Map<String, Method> LOAD_METHODS = new ConcurrentHashMap<>();
+    private static final AtomicLong CONTENT_VERSION_COUNTER = new AtomicLong(0);
+
     public static Future<? extends ImageMap> load(ImageMapManager manager, File folder) throws Exception {
+        return load(manager, folder, readData(folder));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Future<? extends ImageMap> load(ImageMapManager manager, File folder, JsonObject json) throws Exception {
+        String type = json.get("type").getAsString();
+        Method method = LOAD_METHODS.get(type);
+        if (method == null) {
+            method = Class.forName(type).getMethod("load", ImageMapManager.class, File.class, JsonObject.class);
+            LOAD_METHODS.put(type, method);
+        }
+        return (Future<? extends ImageMap>) method.invoke(null, manager, folder, json);
+    }
+
+    public static JsonObject readData(File folder) throws Exception {
         try (BufferedReader reader = Files.newBufferedReader(new File(folder, "data.json").toPath(), StandardCharsets.UTF_8)) {
-            JsonObject json = GSON.fromJson(reader, JsonObject.class);
-            String type = json.get("type").getAsString();
-            return (Future<? extends ImageMap>) Class.forName(type)
-                    .getMethod("load", ImageMapManager.class, File.class, JsonObject.class)
-                    .invoke(null, manager, folder, json);
+            return GSON.fromJson(reader, JsonObject.class);
+        }
+    }
+
+    public static void writeData(File folder, JsonObject json) throws IOException {
+        File file = new File(folder, "data.json");
+        File temp = new File(folder, "data.json.tmp");
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(temp.toPath()), StandardCharsets.UTF_8))) {
+            pw.println(GSON.toJson(json));
+            pw.flush();
         }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
     protected final ImageMapManager manager;
@@ -86,6 +118,12 @@ public abstract class ImageMap {
 
     private boolean isValid;
 
+    protected final Object dataLock;
+    private volatile boolean dataLoaded;
+    private final AtomicBoolean dataLoading;
+    private volatile long lastDataAccess;
+    private volatile long contentVersion;
+
     public ImageMap(ImageMapManager manager, int imageIndex, String name, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
         if (mapViews.size() != width * height) {
             throw new IllegalArgumentException("mapViews size does not equal width * height");
@@ -110,6 +148,12 @@ public abstract class ImageMap {
 
         this.isValid = true;
 
+        this.dataLock = new Object();
+        this.dataLoaded = true;
+        this.dataLoading = new AtomicBoolean(false);
+        this.lastDataAccess = System.currentTimeMillis();
+        this.contentVersion = CONTENT_VERSION_COUNTER.incrementAndGet();
+
         this.hasAccess.remove(creator);
     }
 
@@ -127,7 +171,7 @@ public abstract class ImageMap {
 
     public void rename(String name) throws Exception {
         this.name = name;
-        save();
+        markDirty();
     }
 
     public List<Integer> getMapIds() {
@@ -150,6 +194,103 @@ public abstract class ImageMap {
         }
     }
 
+    public boolean isDataLoaded() {
+        return dataLoaded;
+    }
+
+    protected void markDataUnloaded() {
+        dataLoaded = false;
+    }
+
+    protected void ensureDataLoaded() {
+        lastDataAccess = System.currentTimeMillis();
+        if (dataLoaded) {
+            return;
+        }
+        synchronized (dataLock) {
+            if (dataLoaded) {
+                return;
+            }
+            try {
+                loadData();
+                dataLoaded = true;
+            } catch (Exception e) {
+                Bukkit.getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to load ImageMap data for " + imageIndex);
+                e.printStackTrace();
+                return;
+            }
+        }
+        markContentChanged();
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #ensureDataLoaded()} for render paths. Call it after reading the data
+     * so that an unload racing with the read still schedules a reload. Returns false while the data is being
+     * loaded asynchronously, viewers are resent the map once it is available.
+     */
+    protected boolean requestDataLoad() {
+        lastDataAccess = System.currentTimeMillis();
+        if (dataLoaded) {
+            return true;
+        }
+        if (dataLoading.compareAndSet(false, true)) {
+            Scheduler.runTaskAsynchronously(ImageFrame.plugin, () -> {
+                try {
+                    ensureDataLoaded();
+                } finally {
+                    dataLoading.set(false);
+                }
+                if (dataLoaded && isValid()) {
+                    send(getViewers());
+                }
+            });
+        }
+        return false;
+    }
+
+    protected void updateData(Runnable update) {
+        synchronized (dataLock) {
+            update.run();
+            dataLoaded = true;
+            lastDataAccess = System.currentTimeMillis();
+        }
+        markContentChanged();
+    }
+
+    public long getContentVersion() {
+        return contentVersion;
+    }
+
+    public void markContentChanged() {
+        contentVersion = CONTENT_VERSION_COUNTER.incrementAndGet();
+    }
+
+    public boolean unloadDataIfIdle(long idleTime) {
+        if (!dataLoaded || System.currentTimeMillis() - lastDataAccess < idleTime) {
+            return false;
+        }
+        synchronized (dataLock) {
+            if (!dataLoaded || System.currentTimeMillis() - lastDataAccess < idleTime || !canUnloadData()) {
+                return false;
+            }
+            unloadData();
+            dataLoaded = false;
+            return true;
+        }
+    }
+
+    protected boolean canUnloadData() {
+        return false;
+    }
+
+    protected void loadData() throws Exception {
+        //do nothing
+    }
+
+    protected void unloadData() {
+        //do nothing
+    }
+
     public boolean requiresAnimationService() {
         return false;
     }
@@ -198,6 +339,10 @@ public abstract class ImageMap {
         return true;
     }
 
+    public boolean supportsPacketOnlyDelivery() {
+        return !requiresAnimationService();
+    }
+
     public abstract ImageMap deepClone(String name, UUID creator) throws Exception;
 
     public abstract void update(boolean save) throws Exception;
@@ -211,13 +356,16 @@ public abstract class ImageMap {
     }
 
     public void send(Collection<? extends Player> players) {
-        for (MapView mapView : mapViews) {
-            MapUtils.sendImageMap(mapView, players);
-        }
+        MapUtils.sendImageMaps(mapViews, players);
     }
 
     public abstract void save() throws Exception;
 
+    public void markDirty() {
+        markContentChanged();
+        manager.getSaveQueue().markDirty(this);
+    }
+
     public ItemStack getMap(int x, int y, String mapNameFormat) {
         return getMap(x, y, mapNameFormat, itemStack -> itemStack);
     }
@@ -335,6 +483,7 @@ public abstract class ImageMap {
                         if (frame.isValid() && prePlaceCheck.test(frame, item)) {
                             frame.setItem(item, false);
                             frame.setRotation(rotation);
+                            ImageFrame.rateLimitedPacketSendingManager.getPriorityTracker().trackFrame(frame);
                         } else {
                             unableToPlaceAction.accept(frame, item);
                         }
@@ -357,7 +506,7 @@ public abstract class ImageMap {
     public void changeCreator(UUID creator) throws Exception {
         this.creator = creator;
         hasAccess.remove(creator);
-        save();
+        markDirty();
     }
 
     public ImageMapAccessPermissionType getPermission(UUID player) {
@@ -394,7 +543,7 @@ public abstract class ImageMap {
         } else {
             hasAccess.put(player, permissionType);
         }
-        save();
+        markDirty();
     }
 
     public String getCreatorName() {
@@ -442,36 +591,100 @@ public abstract class ImageMap {
         protected final ImageMapManager manager;
         protected final ImageMap imageMap;
         protected final int index;
+        private final Map<MapCanvas, RenderedCanvas> renderedCanvases;
+        private volatile SharedRender sharedRender;
 
         public ImageMapRenderer(ImageMapManager manager, ImageMap imageMap, int index) {
             super(ImageFrame.mapRenderersContextual);
             this.manager = manager;
             this.imageMap = imageMap;
             this.index = index;
+            this.renderedCanvases = Collections.synchronizedMap(new WeakHashMap<>());
         }
 
         @Override
         public void render(MapView mapView, MapCanvas canvas, Player player) {
-            MutablePair<byte[], Collection<MapCursor>> renderData = renderMap(mapView, player);
-            manager.callRenderEventListener(manager, imageMap, mapView, player, renderData);
-            byte[] colors = renderData.getFirst();
-            if (colors != null) {
-                for (int i = 0; i < colors.length; i++) {
-                    canvas.setPixel(i % MapUtils.MAP_WIDTH, i / MapUtils.MAP_WIDTH, colors[i]);
+            if (ImageFrame.packetOnlyMapDeliveryManager != null && ImageFrame.packetOnlyMapDeliveryManager.isPacketOnly(mapView.getId())) {
+                return;
+            }
+            byte[] colors;
+            MapCursorCollection cursors;
+            boolean altered;
+            if (manager.hasPlayerDependentRenderEventListeners()) {
+                MutablePair<byte[], Collection<MapCursor>> renderData = renderMap(mapView, player);
+                altered = applyRenderEventListeners(mapView, player, renderData);
+                colors = renderData.getFirst();
+                cursors = MapUtils.toMapCursorCollection(renderData.getSecond());
+                if (colors != null) {
+                    writeCanvas(canvas, colors, altered);
+                }
+                MapRenderData.release(renderData);
+            } else {
+                SharedRender sharedRender = getSharedRender(mapView, player);
+                altered = false;
+                colors = sharedRender.colors;
+                cursors = sharedRender.cursors;
+                if (colors != null) {
+                    writeCanvas(canvas, colors, false);
                 }
             }
-            canvas.setCursors(MapUtils.toMapCursorCollection(renderData.getSecond()));
+            canvas.setCursors(cursors);
+        }
+
+        protected void writeCanvas(MapCanvas canvas, byte[] colors, boolean altered) {
+            long contentVersion = imageMap.getContentVersion();
+            RenderedCanvas renderedCanvas = renderedCanvases.get(canvas);
+            if (altered || renderedCanvas == null || renderedCanvas.colors != colors || renderedCanvas.contentVersion != contentVersion) {
+                MapUtils.writeCanvas(canvas, colors);
+                if (altered) {
+                    renderedCanvases.remove(canvas);
+                } else {
+                    renderedCanvases.put(canvas, new RenderedCanvas(colors, contentVersion));
+                }
+            }
+        }
+
+        private SharedRender getSharedRender(MapView mapView, Player player) {
+            long contentVersion = imageMap.getContentVersion();
+            int position = imageMap.requiresAnimationService() ? imageMap.getCurrentPositionInSequence() : 0;
+            SharedRender sharedRender = this.sharedRender;
+            if (sharedRender != null && sharedRender.contentVersion == contentVersion && sharedRender.position == position) {
+                return sharedRender;
+            }
+            MutablePair<byte[], Collection<MapCursor>> renderData = renderMap(mapView, position, player);
+            manager.callRenderEventListener(manager, imageMap, mapView, player, renderData);
+            MapRenderData.detach(renderData);
+            return this.sharedRender = new SharedRender(contentVersion, position, renderData.getFirst(), MapUtils.toMapCursorCollection(renderData.getSecond()));
+        }
+
+        public ImageMap getImageMap() {
+            return imageMap;
+        }
+
+        public boolean isPacketCacheable() {
+            return true;
+        }
+
+        public boolean applyRenderEventListeners(MapView mapView, Player player, MutablePair<byte[], Collection<MapCursor>> renderData) {
+            byte[] colors = renderData.getFirst();
+            Collection<MapCursor> cursors = renderData.getSecond();
+            int cursorsSize = cursors == null ? 0 : cursors.size();
+            manager.callRenderEventListener(manager, imageMap, mapView, player, renderData);
+            Collection<MapCursor> newCursors = renderData.getSecond();
+            return colors != renderData.getFirst() || cursors != newCursors || (newCursors != null && newCursors.size() != cursorsSize);
         }
 
         public MutablePair<byte[], Collection<MapCursor>> renderPacketData(MapView mapView, int currentTick, Player player) {
             MutablePair<byte[], Collection<MapCursor>> renderData = renderMap(mapView, currentTick, player);
             manager.callRenderEventListener(manager, imageMap, mapView, player, renderData);
+            MapRenderData.detach(renderData);
             return renderData;
         }
 
         public MutablePair<byte[], Collection<MapCursor>> renderPacketData(MapView mapView, Player player) {
             MutablePair<byte[], Collection<MapCursor>> renderData = renderMap(mapView, player);
             manager.callRenderEventListener(manager, imageMap, mapView, player, renderData);
+            MapRenderData.detach(renderData);
             return renderData;
         }
 
@@ -481,6 +694,34 @@ public abstract class ImageMap {
 
         public abstract MutablePair<byte[], Collection<MapCursor>> renderMap(MapView mapView, Player player);
 
+        private static class SharedRender {
+
+            private final long contentVersion;
+            private final int position;
+            private final byte[] colors;
+            private final MapCursorCollection cursors;
+
+            private SharedRender(long contentVersion, int position, byte[] colors, MapCursorCollection cursors) {
+                this.contentVersion = contentVersion;
+                this.position = position;
+                this.colors = colors;
+                this.cursors = cursors;
+            }
+
+        }
+
+        private static class RenderedCanvas {
+
+            private final byte[] colors;
+            private final long contentVersion;
+
+            private RenderedCanvas(byte[] colors, long contentVersion) {
+                this.colors = colors;
+                this.contentVersion = contentVersion;
+            }
+
+        }
+
     }
 
     public CompletableFuture<Void> copyFromAsync(ImageMap sourceImageMap) {
@@ -0,0 +1,304 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ImageMapIndex {
+
+    public static final String FILE_NAME = "index.bin";
+
+    private static final int FILE_MAGIC = 0x49464D49;
+    private static final int FILE_VERSION = 1;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_OBJECT = 1;
+    private static final int TYPE_ARRAY = 2;
+    private static final int TYPE_STRING = 3;
+    private static final int TYPE_TRUE = 4;
+    private static final int TYPE_FALSE = 5;
+    private static final int TYPE_INT = 6;
+    private static final int TYPE_LONG = 7;
+    private static final int TYPE_DOUBLE = 8;
+
+    private final File file;
+    private final Map<Integer, Entry> entries;
+    private final AtomicBoolean dirty;
+
+    public ImageMapIndex(File file) {
+        this.file = file;
+        this.entries = new ConcurrentHashMap<>();
+        this.dirty = new AtomicBoolean(false);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public static int getImageIndex(File folder) {
+        String name = folder.getName();
+        if (name.isEmpty() || name.length() > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public JsonObject get(File folder) {
+        int imageIndex = getImageIndex(folder);
+        if (imageIndex < 0) {
+            return null;
+        }
+        Entry entry = entries.get(imageIndex);
+        if (entry == null) {
+            return null;
+        }
+        File dataFile = new File(folder, "data.json");
+        if (entry.lastModified != dataFile.lastModified() || entry.length != dataFile.length()) {
+            return null;
+        }
+        return entry.json;
+    }
+
+    public void put(File folder, JsonObject json) {
+        int imageIndex = getImageIndex(folder);
+        if (imageIndex < 0) {
+            return;
+        }
+        File dataFile = new File(folder, "data.json");
+        entries.put(imageIndex, new Entry(dataFile.lastModified(), dataFile.length(), json));
+        dirty.set(true);
+    }
+
+    public void remove(int imageIndex) {
+        if (entries.remove(imageIndex) != null) {
+            dirty.set(true);
+        }
+    }
+
+    public void retain(Collection<Integer> imageIndexes) {
+        if (entries.keySet().retainAll(imageIndexes)) {
+            dirty.set(true);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public boolean isDirty() {
+        return dirty.get();
+    }
+
+    public synchronized void load() throws IOException {
+        entries.clear();
+        dirty.set(false);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 65536))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                dirty.set(true);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                int imageIndex = in.readInt();
+                long lastModified = in.readLong();
+                long length = in.readLong();
+                JsonElement json = readElement(in);
+                if (json.isJsonObject()) {
+                    entries.put(imageIndex, new Entry(lastModified, length, json.getAsJsonObject()));
+                }
+            }
+        } catch (IOException e) {
+            entries.clear();
+            dirty.set(true);
+            throw e;
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        List<Map.Entry<Integer, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath()), 65536))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Integer, Entry> mapEntry : snapshot) {
+                    Entry entry = mapEntry.getValue();
+                    out.writeInt(mapEntry.getKey());
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.length);
+                    writeElement(out, entry.json);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            dirty.set(true);
+            throw e;
+        }
+    }
+
+    private static void writeElement(DataOutputStream out, JsonElement element) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            out.writeByte(TYPE_NULL);
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            out.writeByte(TYPE_OBJECT);
+            out.writeInt(object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeString(out, entry.getKey());
+                writeElement(out, entry.getValue());
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(array.size());
+            for (JsonElement each : array) {
+                writeElement(out, each);
+            }
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.writeByte(primitive.getAsBoolean() ? TYPE_TRUE : TYPE_FALSE);
+            } else if (primitive.isNumber()) {
+                BigDecimal value = primitive.getAsBigDecimal();
+                if (value.signum() == 0 || value.stripTrailingZeros().scale() <= 0) {
+                    long longValue = value.longValue();
+                    if (longValue == (int) longValue) {
+                        out.writeByte(TYPE_INT);
+                        out.writeInt((int) longValue);
+                    } else {
+                        out.writeByte(TYPE_LONG);
+                        out.writeLong(longValue);
+                    }
+                } else {
+                    out.writeByte(TYPE_DOUBLE);
+                    out.writeDouble(value.doubleValue());
+                }
+            } else {
+                out.writeByte(TYPE_STRING);
+                writeString(out, primitive.getAsString());
+            }
+        }
+    }
+
+    private static JsonElement readElement(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return JsonNull.INSTANCE;
+            case TYPE_OBJECT: {
+                int size = in.readInt();
+                JsonObject object = new JsonObject();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    object.add(key, readElement(in));
+                }
+                return object;
+            }
+            case TYPE_ARRAY: {
+                int size = in.readInt();
+                JsonArray array = new JsonArray();
+                for (int i = 0; i < size; i++) {
+                    array.add(readElement(in));
+                }
+                return array;
+            }
+            case TYPE_STRING:
+                return new JsonPrimitive(readString(in));
+            case TYPE_TRUE:
+                return new JsonPrimitive(true);
+            case TYPE_FALSE:
+                return new JsonPrimitive(false);
+            case TYPE_INT:
+                return new JsonPrimitive(in.readInt());
+            case TYPE_LONG:
+                return new JsonPrimitive(in.readLong());
+            case TYPE_DOUBLE:
+                return new JsonPrimitive(in.readDouble());
+            default:
+                throw new IOException("Unknown element type " + type + " in ImageMap index");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Entry {
+
+        private final long lastModified;
+        private final long length;
+        private final JsonObject json;
+
+        private Entry(long lastModified, long length, JsonObject json) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.json = json;
+        }
+
+    }
+
+}
@@ -16,15 +16,19 @@ import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -51,8 +55,14 @@ public class ImageMapManager implements AutoCloseable {
     private final File dataFolder;
     private final AtomicInteger tickCounter;
     private final Scheduler.ScheduledTask task;
+    private final Scheduler.ScheduledTask dataUnloadTask;
     private final List<ImageMapRenderEventListener> renderEventListeners;
-    private final Set<Integer> deletedMapIds;
+    private final PagedIntBitSet deletedMapIds;
+    private int deletedMapsLogEntries;
+    private final Object deletedMapLookupLock;
+    private volatile PagedIntBitSet nonExemptDeletedMapIds;
+    private final ImageMapIndex index;
+    private final ImageMapSaveQueue saveQueue;
 
     public ImageMapManager(File dataFolder) {
         this.maps = new ConcurrentHashMap<>();
@@ -61,22 +71,39 @@ public class ImageMapManager implements AutoCloseable {
         this.dataFolder = dataFolder;
         this.tickCounter = new AtomicInteger(0);
         this.renderEventListeners = new CopyOnWriteArrayList<>();
-        this.deletedMapIds = ConcurrentHashMap.newKeySet();
+        this.deletedMapIds = new PagedIntBitSet();
+        this.deletedMapsLogEntries = 0;
+        this.deletedMapLookupLock = new Object();
+        this.nonExemptDeletedMapIds = new PagedIntBitSet();
+        this.index = new ImageMapIndex(new File(dataFolder, ImageMapIndex.FILE_NAME));
+        this.saveQueue = new ImageMapSaveQueue(index);
         this.task = Scheduler.runTaskTimerAsynchronously(ImageFrame.plugin, tickCounter::incrementAndGet, 0, 20);
+        this.dataUnloadTask = Scheduler.runTaskTimerAsynchronously(ImageFrame.plugin, this::unloadIdleMapData, 200, 200);
     }
 
     public File getDataFolder() {
         return dataFolder;
     }
 
+    public ImageMapSaveQueue getSaveQueue() {
+        return saveQueue;
+    }
+
+    protected void updateIndex(File folder, JsonObject json) {
+        index.put(folder, json);
+        saveQueue.scheduleFlush();
+    }
+
     protected int getCurrentAnimationTick() {
         return tickCounter.get();
     }
 
     @Override
     public void close() {
-        saveDeletedMaps();
+        saveQueue.close();
+        compactDeletedMaps();
         task.cancel();
+        dataUnloadTask.cancel();
     }
 
     public void appendRenderEventListener(ImageMapRenderEventListener listener) {
@@ -91,6 +118,15 @@ public class ImageMapManager implements AutoCloseable {
         renderEventListeners.remove(listener);
     }
 
+    public boolean hasPlayerDependentRenderEventListeners() {
+        for (ImageMapRenderEventListener listener : renderEventListeners) {
+            if (listener.isPlayerDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected void callRenderEventListener(ImageMapManager manager, ImageMap imageMap, MapView map, Player player, MutablePair<byte[], Collection<MapCursor>> renderData) {
         renderEventListeners.forEach(each -> each.accept(manager, imageMap, map, player, renderData));
     }
@@ -112,6 +148,9 @@ public class ImageMapManager implements AutoCloseable {
         for (MapView mapView : map.getMapViews()) {
             mapsByView.put(mapView, map);
         }
+        if (ImageFrame.packetOnlyMapDeliveryManager != null) {
+            ImageFrame.packetOnlyMapDeliveryManager.addMap(map);
+        }
         try {
             map.save();
         } catch (Throwable e) {
@@ -119,10 +158,23 @@ public class ImageMapManager implements AutoCloseable {
             for (MapView mapView : map.getMapViews()) {
                 mapsByView.remove(mapView);
             }
+            if (ImageFrame.packetOnlyMapDeliveryManager != null) {
+                ImageFrame.packetOnlyMapDeliveryManager.removeMap(map);
+            }
             throw e;
         }
     }
 
+    private void unloadIdleMapData() {
+        if (!ImageFrame.lazyMapData || ImageFrame.lazyMapDataIdleUnloadTime < 0) {
+            return;
+        }
+        long idleTime = ImageFrame.lazyMapDataIdleUnloadTime * 1000L;
+        for (ImageMap map : maps.values()) {
+            map.unloadDataIfIdle(idleTime);
+        }
+    }
+
     public boolean hasMap(int imageIndex) {
         return maps.containsKey(imageIndex);
     }
@@ -168,17 +220,34 @@ public class ImageMapManager implements AutoCloseable {
         for (MapView mapView : mapViews) {
             mapsByView.remove(mapView);
         }
+        List<Integer> newlyDeletedMapIds = new ArrayList<>(mapViews.size());
         if (imageMap.trackDeletedMaps()) {
-            mapViews.forEach(each -> deletedMapIds.add(each.getId()));
+            for (MapView mapView : mapViews) {
+                if (deletedMapIds.add(mapView.getId())) {
+                    newlyDeletedMapIds.add(mapView.getId());
+                }
+            }
+            addNonExemptDeletedMapIds(newlyDeletedMapIds);
         }
         imageMap.markInvalid();
+        if (ImageFrame.mapClientStateManager != null) {
+            for (MapView mapView : mapViews) {
+                ImageFrame.mapClientStateManager.invalidateMap(mapView.getId());
+            }
+        }
+        if (ImageFrame.packetOnlyMapDeliveryManager != null) {
+            ImageFrame.packetOnlyMapDeliveryManager.removeMap(imageMap);
+        }
+        saveQueue.remove(imageMap);
+        index.remove(imageIndex);
+        saveQueue.scheduleFlush();
         dataFolder.mkdirs();
         File folder = new File(dataFolder, String.valueOf(imageIndex));
         if (folder.exists() && folder.isDirectory()) {
             FileUtils.removeFolderRecursively(folder);
         }
         imageMap.stop();
-        saveDeletedMaps();
+        appendDeletedMaps(newlyDeletedMapIds);
         Scheduler.runTask(ImageFrame.plugin, () -> {
             mapViews.forEach(each -> {
                 if (each.getRenderers().isEmpty()) {
@@ -197,6 +266,38 @@ public class ImageMapManager implements AutoCloseable {
         return isMapDeleted(mapView.getId());
     }
 
+    public boolean isMapDeletedAndNotExempt(int mapId) {
+        return nonExemptDeletedMapIds.contains(mapId);
+    }
+
+    public boolean isMapDeletedAndNotExempt(MapView mapView) {
+        return isMapDeletedAndNotExempt(mapView.getId());
+    }
+
+    public void rebuildDeletedMapLookup() {
+        synchronized (deletedMapLookupLock) {
+            IntRangeList exemptMapIds = ImageFrame.exemptMapIdsFromDeletion;
+            PagedIntBitSet lookup = new PagedIntBitSet();
+            deletedMapIds.forEach(mapId -> {
+                if (exemptMapIds == null || !exemptMapIds.satisfies(mapId)) {
+                    lookup.add(mapId);
+                }
+            });
+            nonExemptDeletedMapIds = lookup;
+        }
+    }
+
+    private void addNonExemptDeletedMapIds(Collection<Integer> mapIds) {
+        synchronized (deletedMapLookupLock) {
+            IntRangeList exemptMapIds = ImageFrame.exemptMapIdsFromDeletion;
+            for (int mapId : mapIds) {
+                if (exemptMapIds == null || !exemptMapIds.satisfies(mapId)) {
+                    nonExemptDeletedMapIds.add(mapId);
+                }
+            }
+        }
+    }
+
     public void loadMapsAsync() {
         Bukkit.getScheduler().runTaskAsynchronously(ImageFrame.plugin, () -> {
             List<CompletableFuture<Void>> mapLoadFutures = new ArrayList<>();
@@ -204,13 +305,27 @@ public class ImageMapManager implements AutoCloseable {
             clearMaps();
 
             dataFolder.mkdirs();
-            File[] files = dataFolder.listFiles();
+            File deletedMapsFile = new File(dataFolder, "deletedMaps.bin");
+            File legacyDeletedMapsFile = new File(dataFolder, "deletedMaps.json");
+            if (deletedMapsFile.exists()) {
+                loadDeletedMapsBinary(deletedMapsFile);
+            } else if (legacyDeletedMapsFile.exists()) {
+                loadDeletedMapsJson(legacyDeletedMapsFile);
+                backupAndDeleteLegacyFile(legacyDeletedMapsFile);
+            }
+            rebuildDeletedMapLookup();
+            try {
+                index.load();
+            } catch (IOException e) {
+                Bukkit.getConsoleSender().sendMessage(ChatColor.YELLOW + "[ImageFrame] Unable to read ImageMap index, it will be rebuilt from " + dataFolder.getAbsolutePath());
+            }
+            File[] files = dataFolder.listFiles(File::isDirectory);
 
             if (files == null) {
                 return;
             }
 
-            Arrays.sort(files, FileUtils.BY_NUMBER_THAN_STRING);
+            Set<Integer> imageIndexes = Arrays.stream(files).map(ImageMapIndex::getImageIndex).collect(Collectors.toSet());
 
             int batchSize = 10;
 
@@ -225,6 +340,8 @@ public class ImageMapManager implements AutoCloseable {
             CompletableFuture<Void> allMapLoadFuture = CompletableFuture.allOf(mapLoadFutures.toArray(new CompletableFuture[0]));
 
             allMapLoadFuture.thenRun(() -> {
+                index.retain(imageIndexes);
+                saveQueue.scheduleFlush();
                 Bukkit.getConsoleSender().sendMessage(ChatColor.GREEN + "[ImageFrame] Data loading completed! Loaded " + maps.size() + " ImageMaps!");
             });
         });
@@ -233,7 +350,12 @@ public class ImageMapManager implements AutoCloseable {
     private CompletableFuture<Void> loadImageMapAsync(File file) {
         return CompletableFuture.runAsync(() -> {
             try {
-                ImageMap imageMap = ImageMap.load(this, file).get();
+                JsonObject json = index.get(file);
+                if (json == null) {
+                    json = ImageMap.readData(file);
+                    index.put(file, json);
+                }
+                ImageMap imageMap = ImageMap.load(this, file, json).get();
                 addMap(imageMap);
             } catch (Throwable e) {
                 Bukkit.getConsoleSender().sendMessage(ChatColor.YELLOW + "[ImageFrame] Unable to load ImageMap data in " + file.getAbsolutePath());
@@ -241,11 +363,13 @@ public class ImageMapManager implements AutoCloseable {
         });
     }
 
-    private void loadDeletedMapsBinary(File file) {
-        try (DataInputStream dataInputStream = new DataInputStream(Files.newInputStream(file.toPath()))) {
+    private synchronized void loadDeletedMapsBinary(File file) {
+        int entries = 0;
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
             while (true) {
                 try {
                     deletedMapIds.add(dataInputStream.readInt());
+                    entries++;
                 } catch (EOFException ignore) {
                     break;
                 }
@@ -253,7 +377,13 @@ public class ImageMapManager implements AutoCloseable {
         } catch (IOException e) {
             Bukkit.getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to load ImageMapManager data in " + file.getAbsolutePath());
             e.printStackTrace();
+            return;
+        }
+        deletedMapsLogEntries = entries;
+        if (file.length() != entries * 4L) {
+            deletedMapsLogEntries = -1;
         }
+        compactDeletedMaps();
     }
 
 
@@ -280,15 +410,47 @@ public class ImageMapManager implements AutoCloseable {
         maps.clear();
         mapsByView.clear();
         deletedMapIds.clear();
+        deletedMapsLogEntries = 0;
+        rebuildDeletedMapLookup();
     }
 
-    public synchronized void saveDeletedMaps() {
+    private synchronized void appendDeletedMaps(List<Integer> mapIds) {
+        if (mapIds.isEmpty()) {
+            return;
+        }
         File file = new File(dataFolder, "deletedMaps.bin");
-        try (DataOutputStream dataOutputStream = new DataOutputStream(Files.newOutputStream(file.toPath()))) {
-            for (int deletedMapId : deletedMapIds) {
-                dataOutputStream.writeInt(deletedMapId);
+        try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            for (int mapId : mapIds) {
+                dataOutputStream.writeInt(mapId);
             }
             dataOutputStream.flush();
+            deletedMapsLogEntries += mapIds.size();
+        } catch (IOException e) {
+            Bukkit.getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to save ImageMapManager data in " + file.getAbsolutePath());
+            e.printStackTrace();
+            deletedMapsLogEntries = -1;
+        }
+    }
+
+    private synchronized void compactDeletedMaps() {
+        if (deletedMapsLogEntries != deletedMapIds.size()) {
+            saveDeletedMaps();
+        }
+    }
+
+    public synchronized void saveDeletedMaps() {
+        dataFolder.mkdirs();
+        File file = new File(dataFolder, "deletedMaps.bin");
+        File temp = new File(dataFolder, "deletedMaps.bin.tmp");
+        try {
+            try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                for (int deletedMapId : deletedMapIds.toArray()) {
+                    dataOutputStream.writeInt(deletedMapId);
+                }
+                dataOutputStream.flush();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            deletedMapsLogEntries = deletedMapIds.size();
         } catch (IOException e) {
             Bukkit.getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to save ImageMapManager data in " + file.getAbsolutePath());
             e.printStackTrace();
@@ -303,6 +465,8 @@ public class ImageMapManager implements AutoCloseable {
 
         public static final DeletedMapRenderer INSTANCE = new DeletedMapRenderer();
 
+        private final Set<MapCanvas> renderedCanvases = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
         private DeletedMapRenderer() {}
 
         @Override
@@ -312,10 +476,10 @@ public class ImageMapManager implements AutoCloseable {
                 Scheduler.runTaskLater(ImageFrame.plugin, () -> map.removeRenderer(this), 1);
                 return;
             }
-            for (int y = 0; y < MapUtils.MAP_WIDTH; y++) {
-                for (int x = 0; x < MapUtils.MAP_WIDTH; x++) {
-                    canvas.setPixel(x, y, WHITE_PIXEL);
-                }
+            if (renderedCanvases.add(canvas)) {
+                byte[] colors = new byte[MapUtils.COLOR_ARRAY_LENGTH];
+                Arrays.fill(colors, WHITE_PIXEL);
+                MapUtils.writeCanvas(canvas, colors);
             }
         }
     }
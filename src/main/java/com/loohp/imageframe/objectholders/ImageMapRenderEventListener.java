@@ -29,6 +29,19 @@ import java.util.Collection;
 @FunctionalInterface
 public interface ImageMapRenderEventListener {
 
+    /**
+     * The colors and cursors in renderData may be shared and must not be modified in place,
+     * use {@link MapRenderData#getMutableColors(MutablePair)} and {@link MapRenderData#getMutableCursors(MutablePair)} instead.
+     */
     void accept(ImageMapManager manager, ImageMap imageMap, MapView map, Player player, MutablePair<byte[], Collection<MapCursor>> renderData);
 
+    /**
+     * Whether this listener may produce different output for different players, or for the same map content over time.
+     * Returning false allows renderers to render each map once per content version and share the result across all viewers,
+     * in which case the player passed to {@link #accept} is simply the first viewer that triggered the render.
+     */
+    default boolean isPlayerDependent() {
+        return true;
+    }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.loohp.imageframe.ImageFrame;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ImageMapSaveQueue implements AutoCloseable {
+
+    private final ImageMapIndex index;
+    private final ScheduledExecutorService executor;
+    private final Set<ImageMap> dirtyMaps;
+    private final AtomicBoolean flushScheduled;
+    private final Object saveLock;
+
+    public ImageMapSaveQueue(ImageMapIndex index) {
+        this.index = index;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ImageFrame-SaveQueue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dirtyMaps = ConcurrentHashMap.newKeySet();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.saveLock = new Object();
+    }
+
+    public void markDirty(ImageMap imageMap) {
+        dirtyMaps.add(imageMap);
+        scheduleFlush();
+    }
+
+    public void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::runScheduledFlush, Math.max(0, ImageFrame.saveDelay) * 50L, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false);
+                flush();
+            }
+        }
+    }
+
+    public void remove(ImageMap imageMap) {
+        synchronized (saveLock) {
+            dirtyMaps.remove(imageMap);
+        }
+    }
+
+    public void flush() {
+        synchronized (saveLock) {
+            Iterator<ImageMap> itr = dirtyMaps.iterator();
+            while (itr.hasNext()) {
+                ImageMap imageMap = itr.next();
+                itr.remove();
+                if (imageMap.isValid() && imageMap.getImageIndex() >= 0) {
+                    try {
+                        imageMap.save();
+                    } catch (Throwable e) {
+                        Bukkit.getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to save ImageMap data for " + imageMap.getImageIndex());
+                        e.printStackTrace();
+                    }
+                }
+            }
+            if (index.isDirty()) {
+                try {
+                    index.save();
+                } catch (Throwable e) {
+                    Bukkit.getConsoleSender().sendMessage(ChatColor.RED + "[ImageFrame] Unable to save ImageMap index in " + index.getFile().getAbsolutePath());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void runScheduledFlush() {
+        flushScheduled.set(false);
+        flush();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        flush();
+    }
+
+}
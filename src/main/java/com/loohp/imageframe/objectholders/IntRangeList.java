@@ -25,7 +25,12 @@ import java.util.ArrayList;
 public class IntRangeList extends ArrayList<IntRange> {
 
     public boolean satisfies(int value) {
-        return stream().anyMatch(r -> r.satisfies(value));
+        for (int i = 0; i < size(); i++) {
+            if (get(i).satisfies(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 }
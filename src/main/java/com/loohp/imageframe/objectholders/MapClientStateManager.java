@@ -0,0 +1,165 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.loohp.imageframe.ImageFrame;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.map.MapCursor;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class MapClientStateManager implements Listener, AutoCloseable {
+
+    public static long hashColors(byte[] colors) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte color : colors) {
+            hash = (hash ^ (color & 0xFF)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    public static int hashCursors(Collection<MapCursor> cursors) {
+        if (cursors == null) {
+            return 0;
+        }
+        int hash = 1;
+        for (MapCursor cursor : cursors) {
+            hash = 31 * hash + Objects.hash(cursor.getX(), cursor.getY(), cursor.getDirection(), cursor.getType(), cursor.isVisible(), cursor.getCaption());
+        }
+        return hash;
+    }
+
+    private final Map<UUID, Map<Integer, ClientMapState>> clientStates;
+    private final Map<UUID, ReentrantLock> playerLocks;
+
+    public MapClientStateManager() {
+        this.clientStates = new ConcurrentHashMap<>();
+        this.playerLocks = new ConcurrentHashMap<>();
+        Bukkit.getPluginManager().registerEvents(this, ImageFrame.plugin);
+    }
+
+    @Override
+    public void close() {
+        HandlerList.unregisterAll(this);
+        clientStates.clear();
+        playerLocks.clear();
+    }
+
+    /**
+     * Held from reading a player's client state until the resulting packet is queued,
+     * so patches for the same map reach the send queue in the order they were diffed.
+     */
+    public ReentrantLock getLock(Player player) {
+        return playerLocks.computeIfAbsent(player.getUniqueId(), k -> new ReentrantLock());
+    }
+
+    public ClientMapState getState(Player player, int mapId) {
+        Map<Integer, ClientMapState> states = clientStates.get(player.getUniqueId());
+        return states == null ? null : states.get(mapId);
+    }
+
+    public void setState(Player player, int mapId, ClientMapState state) {
+        if (!player.isOnline()) {
+            return;
+        }
+        clientStates.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>()).put(mapId, state);
+    }
+
+    public void invalidate(Player player, int mapId) {
+        Map<Integer, ClientMapState> states = clientStates.get(player.getUniqueId());
+        if (states != null) {
+            states.remove(mapId);
+        }
+    }
+
+    public void invalidate(Player player) {
+        clientStates.remove(player.getUniqueId());
+    }
+
+    public void invalidateMap(int mapId) {
+        for (Map<Integer, ClientMapState> states : clientStates.values()) {
+            states.remove(mapId);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        invalidate(event.getPlayer());
+        playerLocks.remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    public static class ClientMapState {
+
+        private final byte[] colors;
+        private final long colorsHash;
+        private final int cursorsHash;
+
+        public ClientMapState(byte[] colors, long colorsHash, int cursorsHash) {
+            this.colors = colors;
+            this.colorsHash = colorsHash;
+            this.cursorsHash = cursorsHash;
+        }
+
+        public byte[] getColors() {
+            return colors;
+        }
+
+        public long getColorsHash() {
+            return colorsHash;
+        }
+
+        public int getCursorsHash() {
+            return cursorsHash;
+        }
+
+    }
+
+}
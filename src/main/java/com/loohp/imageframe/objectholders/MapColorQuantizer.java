@@ -0,0 +1,272 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.loohp.imageframe.objectholders;
+
+import org.bukkit.map.MapPalette;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class MapColorQuantizer {
+
+    public static final int TABLE_SIZE = 1 << 24;
+
+    private static final int FILE_MAGIC = 0x49464354;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final File file;
+    private final int[] paletteIndices;
+    private final int[] paletteColors;
+    private final int[] paletteReds;
+    private final int paletteHash;
+    private volatile byte[] table;
+
+    @SuppressWarnings("deprecation")
+    public MapColorQuantizer(File file) {
+        this.file = file;
+        List<Integer> indices = new ArrayList<>();
+        List<Integer> colors = new ArrayList<>();
+        for (int i = 4; i < 256; i++) {
+            Color color;
+            try {
+                color = MapPalette.getColor((byte) i);
+            } catch (Throwable e) {
+                continue;
+            }
+            if (color == null || color.getAlpha() < 128) {
+                continue;
+            }
+            indices.add(i);
+            colors.add(color.getRGB() & 0xFFFFFF);
+        }
+        Integer[] order = IntStream.range(0, indices.size()).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.comparingInt(i -> (colors.get(i) >> 16) & 0xFF));
+        this.paletteIndices = Arrays.stream(order).mapToInt(i -> indices.get(i)).toArray();
+        this.paletteColors = Arrays.stream(order).mapToInt(i -> colors.get(i)).toArray();
+        this.paletteReds = Arrays.stream(paletteColors).map(c -> (c >> 16) & 0xFF).toArray();
+        int hash = 1;
+        for (int i = 0; i < paletteIndices.length; i++) {
+            hash = 31 * hash + paletteIndices[i];
+            hash = 31 * hash + paletteColors[i];
+        }
+        this.paletteHash = hash;
+        this.table = null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isLoaded() {
+        return table != null;
+    }
+
+    public synchronized void loadOrBuild() throws IOException {
+        if (table != null) {
+            return;
+        }
+        byte[] loaded = file.exists() ? readTable() : null;
+        if (loaded == null) {
+            loaded = buildTable();
+            writeTable(loaded);
+        }
+        table = loaded;
+    }
+
+    private byte[] readTable() {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != HEADER_SIZE + TABLE_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION || header.getInt() != paletteHash || header.getInt() != paletteIndices.length) {
+                return null;
+            }
+            byte[] data = new byte[TABLE_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+            return buffer.hasRemaining() ? null : data;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeTable(byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(paletteHash).putInt(paletteIndices.length);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private byte[] buildTable() {
+        byte[] data = new byte[TABLE_SIZE];
+        IntStream.range(0, 256).parallel().forEach(red -> {
+            int base = red << 16;
+            for (int rgb = base; rgb < base + 65536; rgb++) {
+                data[rgb] = matchColor(rgb);
+            }
+        });
+        return data;
+    }
+
+    private byte matchColor(int rgb) {
+        int red = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int blue = rgb & 0xFF;
+        int start = 0;
+        while (start < paletteReds.length && paletteReds[start] < red) {
+            start++;
+        }
+        //palette is sorted by red and every channel weight is at least 2, so once 2 * r * r exceeds the best distance nothing further out can be closer
+        int index = 0;
+        double best = Double.MAX_VALUE;
+        for (int i = start; i < paletteColors.length; i++) {
+            double r = red - paletteReds[i];
+            if (2 * r * r > best) {
+                break;
+            }
+            double distance = getDistance(red, green, blue, paletteColors[i]);
+            if (distance < best || (distance == best && paletteIndices[i] < index)) {
+                best = distance;
+                index = paletteIndices[i];
+            }
+        }
+        for (int i = start - 1; i >= 0; i--) {
+            double r = red - paletteReds[i];
+            if (2 * r * r > best) {
+                break;
+            }
+            double distance = getDistance(red, green, blue, paletteColors[i]);
+            if (distance < best || (distance == best && paletteIndices[i] < index)) {
+                best = distance;
+                index = paletteIndices[i];
+            }
+        }
+        return (byte) index;
+    }
+
+    private static double getDistance(int red, int green, int blue, int paletteColor) {
+        int paletteRed = (paletteColor >> 16) & 0xFF;
+        double rmean = (red + paletteRed) / 2.0;
+        double r = red - paletteRed;
+        double g = green - ((paletteColor >> 8) & 0xFF);
+        int b = blue - (paletteColor & 0xFF);
+        double weightR = 2 + rmean / 256.0;
+        double weightG = 4.0;
+        double weightB = 2 + (255 - rmean) / 256.0;
+        return weightR * r * r + weightG * g * g + weightB * b * b;
+    }
+
+    public byte matchColor(int argb, boolean hasAlpha) {
+        if (hasAlpha && (argb >>> 24) < 128) {
+            return MapPalette.TRANSPARENT;
+        }
+        byte[] table = this.table;
+        if (table == null) {
+            return matchColor(argb & 0xFFFFFF);
+        }
+        return table[argb & 0xFFFFFF];
+    }
+
+    public byte[] imageToBytes(Image image) {
+        BufferedImage bufferedImage = toIntImage(image);
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+        byte[] result = new byte[width * height];
+        boolean hasAlpha = bufferedImage.getType() == BufferedImage.TYPE_INT_ARGB;
+        WritableRaster raster = bufferedImage.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        SampleModel sampleModel = raster.getSampleModel();
+        if (dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel && dataBuffer.getNumBanks() == 1) {
+            int[] pixels = ((DataBufferInt) dataBuffer).getData();
+            int scanlineStride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+            int offset = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX();
+            byte[] table = this.table;
+            int i = 0;
+            for (int y = 0; y < height; y++) {
+                int rowOffset = offset + y * scanlineStride;
+                for (int x = 0; x < width; x++) {
+                    int argb = pixels[rowOffset + x];
+                    if (hasAlpha && (argb >>> 24) < 128) {
+                        result[i++] = MapPalette.TRANSPARENT;
+                    } else {
+                        result[i++] = table == null ? matchColor(argb & 0xFFFFFF) : table[argb & 0xFFFFFF];
+                    }
+                }
+            }
+        } else {
+            int[] pixels = bufferedImage.getRGB(0, 0, width, height, null, 0, width);
+            for (int i = 0; i < pixels.length; i++) {
+                result[i] = matchColor(pixels[i], hasAlpha);
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage toIntImage(Image image) {
+        if (image instanceof BufferedImage) {
+            BufferedImage bufferedImage = (BufferedImage) image;
+            int type = bufferedImage.getType();
+            if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+                return bufferedImage;
+            }
+        }
+        BufferedImage temp = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = temp.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return temp;
+    }
+
+}
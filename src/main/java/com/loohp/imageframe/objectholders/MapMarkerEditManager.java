@@ -60,17 +60,24 @@ public class MapMarkerEditManager implements Listener, AutoCloseable {
 
     public MapMarkerEditManager() {
         this.activeEditing = new ConcurrentHashMap<>();
-        this.renderEventListener = (manager, imageMap, map, player, renderData) -> {
-            Collection<MapCursor> cursors = renderData.getSecond();
-            List<MapCursor> additionCursors = new LinkedList<>();
-            for (MapMarkerEditData data : activeEditing.values()) {
-                MapView targetMap = data.getCurrentTargetMap();
-                if (targetMap != null && targetMap.equals(map) && data.getImageMap().equals(imageMap)) {
-                    additionCursors.add(data.getMapCursor());
+        this.renderEventListener = new ImageMapRenderEventListener() {
+            @Override
+            public void accept(ImageMapManager manager, ImageMap imageMap, MapView map, Player player, MutablePair<byte[], Collection<MapCursor>> renderData) {
+                List<MapCursor> additionCursors = new LinkedList<>();
+                for (MapMarkerEditData data : activeEditing.values()) {
+                    MapView targetMap = data.getCurrentTargetMap();
+                    if (targetMap != null && targetMap.equals(map) && data.getImageMap().equals(imageMap)) {
+                        additionCursors.add(data.getMapCursor());
+                    }
+                }
+                if (!additionCursors.isEmpty()) {
+                    MapRenderData.getMutableCursors(renderData).addAll(additionCursors);
                 }
             }
-            if (!additionCursors.isEmpty()) {
-                cursors.addAll(additionCursors);
+
+            @Override
+            public boolean isPlayerDependent() {
+                return !activeEditing.isEmpty();
             }
         };
         ImageFrame.imageMapManager.appendRenderEventListener(renderEventListener);
@@ -200,8 +207,8 @@ public class MapMarkerEditManager implements Listener, AutoCloseable {
                     MapCursor mapCursor = editData.getMapCursor();
                     markers.put(editData.getName(), mapCursor);
                     Bukkit.getPluginManager().callEvent(new ImageMapUpdatedEvent(imageMap));
+                    imageMap.markDirty();
                     imageMap.send(imageMap.getViewers());
-                    imageMap.save();
                     player.sendMessage(ImageFrame.messageMarkersAddConfirm);
                 }
             } catch (Exception e) {
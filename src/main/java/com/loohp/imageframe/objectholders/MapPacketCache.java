@@ -0,0 +1,119 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.comphenix.protocol.events.PacketContainer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+public class MapPacketCache {
+
+    private final Map<Key, CachedMapPacket> cache;
+    private int maxSize;
+
+    public MapPacketCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.cache = new LinkedHashMap<Key, CachedMapPacket>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PacketContainer> eldest) {
+                return size() > MapPacketCache.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        if (cache.size() > this.maxSize) {
+            cache.clear();
+        }
+    }
+
+    public synchronized CachedMapPacket get(int mapId, int tick, long contentVersion) {
+        return cache.get(new Key(mapId, tick, contentVersion));
+    }
+
+    public synchronized void put(int mapId, int tick, long contentVersion, CachedMapPacket packet) {
+        if (maxSize > 0) {
+            cache.put(new Key(mapId, tick, contentVersion), packet);
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public static class CachedMapPacket {
+
+        private final PacketContainer packet;
+        private final byte[] colors;
+        private final int cursorsHash;
+
+        public CachedMapPacket(PacketContainer packet, byte[] colors, int cursorsHash) {
+            this.packet = packet;
+            this.colors = colors;
+            this.cursorsHash = cursorsHash;
+        }
+
+        public PacketContainer getPacket() {
+            return packet;
+        }
+
+        public byte[] getColors() {
+            return colors;
+        }
+
+        public int getCursorsHash() {
+            return cursorsHash;
+        }
+
+    }
+
+    private static class Key {
+
+        private final int mapId;
+        private final int tick;
+        private final long contentVersion;
+
+        private Key(int mapId, int tick, long contentVersion) {
+            this.mapId = mapId;
+            this.tick = tick;
+            this.contentVersion = contentVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return mapId == key.mapId && tick == key.tick && contentVersion == key.contentVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mapId, tick, contentVersion);
+        }
+
+    }
+
+}
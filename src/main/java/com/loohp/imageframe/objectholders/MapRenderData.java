@@ -0,0 +1,168 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.loohp.imageframe.utils.MapUtils;
+import org.bukkit.map.MapCursor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Render data handed through the render pipeline. The colors and cursors returned by {@link #getFirst()} and
+ * {@link #getSecond()} may be shared with caches or other viewers and must be treated as read-only.
+ * Listeners that want to modify them should go through {@link #getMutableColors(MutablePair)} and
+ * {@link #getMutableCursors(MutablePair)}, which copy on first write into buffers owned by the pipeline.
+ */
+public class MapRenderData extends MutablePair<byte[], Collection<MapCursor>> {
+
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final ThreadLocal<Deque<byte[]>> BUFFER_POOL = ThreadLocal.withInitial(() -> new ArrayDeque<>(MAX_POOLED_BUFFERS));
+
+    public static byte[] getMutableColors(MutablePair<byte[], Collection<MapCursor>> renderData) {
+        if (renderData instanceof MapRenderData) {
+            return ((MapRenderData) renderData).getMutableColors();
+        }
+        byte[] colors = renderData.getFirst();
+        byte[] mutableColors = colors == null ? new byte[MapUtils.COLOR_ARRAY_LENGTH] : colors.clone();
+        renderData.setFirst(mutableColors);
+        return mutableColors;
+    }
+
+    public static Collection<MapCursor> getMutableCursors(MutablePair<byte[], Collection<MapCursor>> renderData) {
+        if (renderData instanceof MapRenderData) {
+            return ((MapRenderData) renderData).getMutableCursors();
+        }
+        Collection<MapCursor> cursors = renderData.getSecond();
+        Collection<MapCursor> mutableCursors = cursors == null ? new ArrayList<>() : new ArrayList<>(cursors);
+        renderData.setSecond(mutableCursors);
+        return mutableCursors;
+    }
+
+    /**
+     * Replaces pooled colors with a private copy, must be called before the colors outlive the current render
+     */
+    public static void detach(MutablePair<byte[], Collection<MapCursor>> renderData) {
+        if (renderData instanceof MapRenderData) {
+            ((MapRenderData) renderData).detach();
+        }
+    }
+
+    /**
+     * Returns pooled colors to the pool, the colors must not be used afterwards
+     */
+    public static void release(MutablePair<byte[], Collection<MapCursor>> renderData) {
+        if (renderData instanceof MapRenderData) {
+            ((MapRenderData) renderData).release();
+        }
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buffer = BUFFER_POOL.get().pollFirst();
+        return buffer == null ? new byte[MapUtils.COLOR_ARRAY_LENGTH] : buffer;
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        Deque<byte[]> pool = BUFFER_POOL.get();
+        if (pool.size() < MAX_POOLED_BUFFERS) {
+            pool.offerFirst(buffer);
+        }
+    }
+
+    private byte[] pooledColors;
+    private boolean cursorsCopied;
+
+    public MapRenderData(byte[] colors, Collection<MapCursor> cursors) {
+        super(colors, cursors);
+        this.pooledColors = null;
+        this.cursorsCopied = false;
+    }
+
+    @Override
+    public void setFirst(byte[] first) {
+        if (pooledColors != null && first != pooledColors) {
+            releaseBuffer(pooledColors);
+            pooledColors = null;
+        }
+        super.setFirst(first);
+    }
+
+    @Override
+    public void setSecond(Collection<MapCursor> second) {
+        cursorsCopied = false;
+        super.setSecond(second);
+    }
+
+    private byte[] getMutableColors() {
+        byte[] colors = getFirst();
+        if (pooledColors != null && colors == pooledColors) {
+            return pooledColors;
+        }
+        if (colors != null && colors.length != MapUtils.COLOR_ARRAY_LENGTH) {
+            byte[] mutableColors = colors.clone();
+            setFirst(mutableColors);
+            return mutableColors;
+        }
+        byte[] buffer = acquireBuffer();
+        if (colors == null) {
+            Arrays.fill(buffer, (byte) 0);
+        } else {
+            System.arraycopy(colors, 0, buffer, 0, buffer.length);
+        }
+        setFirst(buffer);
+        pooledColors = buffer;
+        return buffer;
+    }
+
+    private Collection<MapCursor> getMutableCursors() {
+        if (cursorsCopied) {
+            return getSecond();
+        }
+        Collection<MapCursor> cursors = getSecond();
+        Collection<MapCursor> mutableCursors = cursors == null ? new ArrayList<>() : new ArrayList<>(cursors);
+        super.setSecond(mutableCursors);
+        cursorsCopied = true;
+        return mutableCursors;
+    }
+
+    private void detach() {
+        if (pooledColors != null) {
+            byte[] buffer = pooledColors;
+            if (getFirst() == buffer) {
+                super.setFirst(buffer.clone());
+            }
+            pooledColors = null;
+            releaseBuffer(buffer);
+        }
+    }
+
+    private void release() {
+        if (pooledColors != null) {
+            releaseBuffer(pooledColors);
+            pooledColors = null;
+        }
+    }
+
+}
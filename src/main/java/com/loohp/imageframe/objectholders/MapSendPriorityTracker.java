@@ -0,0 +1,333 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.loohp.imageframe.ImageFrame;
+import com.loohp.imageframe.utils.MapUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.hanging.HangingBreakEvent;
+import org.bukkit.event.player.PlayerInteractEntityEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.map.MapView;
+import org.bukkit.util.Vector;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+public class MapSendPriorityTracker implements Listener, AutoCloseable {
+
+    public static final double HELD_MAP_SCORE = -1;
+    public static final double UNKNOWN_SCORE = Double.MAX_VALUE;
+    public static final int VIEW_UPDATE_PERIOD = 5;
+    public static final double VIEW_MOVE_THRESHOLD_SQUARED = 4;
+    public static final double VIEW_TURN_THRESHOLD = 0.96;
+
+    private final Map<UUID, FrameLocation> frames;
+    private final Map<Integer, Set<UUID>> mapFrames;
+    private final Map<UUID, Map<Long, Set<UUID>>> chunkFrames;
+    private final Map<UUID, PlayerView> playerViews;
+    private final Scheduler.ScheduledTask task;
+
+    public MapSendPriorityTracker() {
+        this.frames = new ConcurrentHashMap<>();
+        this.mapFrames = new ConcurrentHashMap<>();
+        this.chunkFrames = new ConcurrentHashMap<>();
+        this.playerViews = new ConcurrentHashMap<>();
+        for (World world : Bukkit.getWorlds()) {
+            for (ItemFrame itemFrame : world.getEntitiesByClass(ItemFrame.class)) {
+                trackFrame(itemFrame);
+            }
+        }
+        Bukkit.getPluginManager().registerEvents(this, ImageFrame.plugin);
+        //entities load separately from their chunks on 1.17+
+        registerEntitiesEvent("org.bukkit.event.world.EntitiesLoadEvent", entity -> {
+            if (entity instanceof ItemFrame) {
+                trackFrame((ItemFrame) entity);
+            }
+        });
+        registerEntitiesEvent("org.bukkit.event.world.EntitiesUnloadEvent", entity -> untrackFrame(entity.getUniqueId()));
+        this.task = Scheduler.runTaskTimer(ImageFrame.plugin, () -> updatePlayerViews(), 0, VIEW_UPDATE_PERIOD);
+    }
+
+    @Override
+    public void close() {
+        HandlerList.unregisterAll(this);
+        task.cancel();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void registerEntitiesEvent(String className, Consumer<Entity> handler) {
+        Class<? extends Event> eventClass;
+        Method getEntitiesMethod;
+        try {
+            eventClass = Class.forName(className).asSubclass(Event.class);
+            getEntitiesMethod = eventClass.getMethod("getEntities");
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return;
+        }
+        Bukkit.getPluginManager().registerEvent(eventClass, this, EventPriority.MONITOR, (listener, event) -> {
+            if (!eventClass.isInstance(event)) {
+                return;
+            }
+            try {
+                for (Entity entity : (Collection<Entity>) getEntitiesMethod.invoke(event)) {
+                    handler.accept(entity);
+                }
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }, ImageFrame.plugin);
+    }
+
+    public void trackFrame(ItemFrame itemFrame) {
+        MapView mapView = itemFrame.isValid() ? MapUtils.getItemMapView(itemFrame.getItem()) : null;
+        if (mapView == null) {
+            untrackFrame(itemFrame.getUniqueId());
+            return;
+        }
+        UUID entityId = itemFrame.getUniqueId();
+        FrameLocation frame = new FrameLocation(mapView.getId(), itemFrame.getLocation());
+        FrameLocation previous = frames.put(entityId, frame);
+        if (previous != null) {
+            removeIndex(entityId, previous);
+        }
+        mapFrames.computeIfAbsent(frame.mapId, k -> ConcurrentHashMap.newKeySet()).add(entityId);
+        chunkFrames.computeIfAbsent(frame.world, k -> new ConcurrentHashMap<>()).computeIfAbsent(frame.chunkKey, k -> ConcurrentHashMap.newKeySet()).add(entityId);
+    }
+
+    public void untrackFrame(UUID entityId) {
+        FrameLocation previous = frames.remove(entityId);
+        if (previous != null) {
+            removeIndex(entityId, previous);
+        }
+    }
+
+    private void removeIndex(UUID entityId, FrameLocation frame) {
+        mapFrames.computeIfPresent(frame.mapId, (k, v) -> {
+            v.remove(entityId);
+            return v.isEmpty() ? null : v;
+        });
+        Map<Long, Set<UUID>> worldFrames = chunkFrames.get(frame.world);
+        if (worldFrames != null) {
+            worldFrames.computeIfPresent(frame.chunkKey, (k, v) -> {
+                v.remove(entityId);
+                return v.isEmpty() ? null : v;
+            });
+        }
+    }
+
+    private static long getChunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public long getViewVersion(UUID player) {
+        PlayerView view = playerViews.get(player);
+        return view == null ? 0 : view.version;
+    }
+
+    public double getScore(UUID player, int mapId) {
+        PlayerView view = playerViews.get(player);
+        if (view == null || mapId < 0) {
+            return UNKNOWN_SCORE;
+        }
+        if (view.heldMapId == mapId) {
+            return HELD_MAP_SCORE;
+        }
+        Set<UUID> entityIds = mapFrames.get(mapId);
+        if (entityIds == null) {
+            return UNKNOWN_SCORE;
+        }
+        double score = UNKNOWN_SCORE;
+        for (UUID entityId : entityIds) {
+            FrameLocation frame = frames.get(entityId);
+            if (frame != null && frame.world.equals(view.world)) {
+                score = Math.min(score, getScore(view, frame));
+            }
+        }
+        return score;
+    }
+
+    private static double getScore(PlayerView view, FrameLocation frame) {
+        double dx = frame.x - view.x;
+        double dy = frame.y - view.y;
+        double dz = frame.z - view.z;
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance < 0.0001) {
+            return 0;
+        }
+        double cos = (dx * view.directionX + dy * view.directionY + dz * view.directionZ) / distance;
+        return distance * (2 - cos);
+    }
+
+    private void updatePlayerViews() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location location = player.getEyeLocation();
+            MapView heldMapView = MapUtils.getPlayerMapView(player);
+            int heldMapId = heldMapView == null ? -1 : heldMapView.getId();
+            PlayerView previous = playerViews.get(player.getUniqueId());
+            if (previous != null && !previous.hasChanged(location, heldMapId)) {
+                continue;
+            }
+            long version = previous == null ? 1 : previous.version + 1;
+            playerViews.put(player.getUniqueId(), new PlayerView(location, heldMapId, version));
+        }
+    }
+
+    private void retrackLater(ItemFrame itemFrame) {
+        //the frame item is only updated after the event completes
+        Scheduler.runTaskLater(ImageFrame.plugin, () -> trackFrame(itemFrame), 1, itemFrame);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        for (Entity entity : event.getChunk().getEntities()) {
+            if (entity instanceof ItemFrame) {
+                trackFrame((ItemFrame) entity);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        Map<Long, Set<UUID>> worldFrames = chunkFrames.get(chunk.getWorld().getUID());
+        if (worldFrames == null) {
+            return;
+        }
+        Set<UUID> entityIds = worldFrames.get(getChunkKey(chunk.getX(), chunk.getZ()));
+        if (entityIds != null) {
+            for (UUID entityId : entityIds.toArray(new UUID[0])) {
+                untrackFrame(entityId);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerInteractEntity(PlayerInteractEntityEvent event) {
+        Entity entity = event.getRightClicked();
+        if (entity instanceof ItemFrame) {
+            retrackLater((ItemFrame) entity);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityDamage(EntityDamageEvent event) {
+        Entity entity = event.getEntity();
+        if (entity instanceof ItemFrame) {
+            retrackLater((ItemFrame) entity);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onHangingBreak(HangingBreakEvent event) {
+        if (event.getEntity() instanceof ItemFrame) {
+            untrackFrame(event.getEntity().getUniqueId());
+        }
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        playerViews.remove(event.getPlayer().getUniqueId());
+    }
+
+    private static class FrameLocation {
+
+        private final int mapId;
+        private final UUID world;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final long chunkKey;
+
+        private FrameLocation(int mapId, Location location) {
+            this.mapId = mapId;
+            this.world = location.getWorld().getUID();
+            this.x = location.getX();
+            this.y = location.getY();
+            this.z = location.getZ();
+            this.chunkKey = getChunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        }
+
+    }
+
+    private static class PlayerView {
+
+        private final UUID world;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final double directionX;
+        private final double directionY;
+        private final double directionZ;
+        private final int heldMapId;
+        private final long version;
+
+        private PlayerView(Location location, int heldMapId, long version) {
+            Vector direction = location.getDirection();
+            this.world = location.getWorld().getUID();
+            this.x = location.getX();
+            this.y = location.getY();
+            this.z = location.getZ();
+            this.directionX = direction.getX();
+            this.directionY = direction.getY();
+            this.directionZ = direction.getZ();
+            this.heldMapId = heldMapId;
+            this.version = version;
+        }
+
+        private boolean hasChanged(Location location, int heldMapId) {
+            if (this.heldMapId != heldMapId || !world.equals(location.getWorld().getUID())) {
+                return true;
+            }
+            double dx = location.getX() - x;
+            double dy = location.getY() - y;
+            double dz = location.getZ() - z;
+            if (dx * dx + dy * dy + dz * dz > VIEW_MOVE_THRESHOLD_SQUARED) {
+                return true;
+            }
+            Vector direction = location.getDirection();
+            return direction.getX() * directionX + direction.getY() * directionY + direction.getZ() * directionZ < VIEW_TURN_THRESHOLD;
+        }
+
+    }
+
+}
@@ -23,6 +23,7 @@ package com.loohp.imageframe.objectholders;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.loohp.imageframe.ImageFrame;
 import com.loohp.imageframe.utils.FutureUtils;
 import com.loohp.imageframe.utils.MapUtils;
 import org.bukkit.Bukkit;
@@ -30,10 +31,13 @@ import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapCursor;
+import org.bukkit.map.MapCursorCollection;
+import org.bukkit.map.MapFont;
 import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 
+import java.awt.Image;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -61,7 +65,7 @@ public class MinecraftURLOverlayImageMap extends URLStaticImageMap {
             }
             markers.add(new ConcurrentHashMap<>());
         }
-        MinecraftURLOverlayImageMap map = new MinecraftURLOverlayImageMap(manager, -1, name, url, new FileLazyMappedBufferedImage[mapsCount], mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis());
+        MinecraftURLOverlayImageMap map = new MinecraftURLOverlayImageMap(manager, -1, name, url, new FileLazyMappedBufferedImage[mapsCount], null, mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis());
         return FutureUtils.callAsyncMethod(() -> {
             FutureUtils.callSyncMethod(() -> {
                 for (int i = 0; i < mapViews.size(); i++) {
@@ -107,7 +111,9 @@ public class MinecraftURLOverlayImageMap extends URLStaticImageMap {
             int mapId = jsonObject.get("mapid").getAsInt();
             mapIds.add(mapId);
             mapViewsFuture.add(MapUtils.getMapOrCreateMissing(world, mapId));
-            cachedImages[i] = FileLazyMappedBufferedImage.fromFile(new File(folder, jsonObject.get("image").getAsString()));
+            if (jsonObject.has("image")) {
+                cachedImages[i] = FileLazyMappedBufferedImage.fromFile(new File(folder, jsonObject.get("image").getAsString()));
+            }
             Map<String, MapCursor> mapCursors = new ConcurrentHashMap<>();
             if (jsonObject.has("markers")) {
                 JsonArray markerArray = jsonObject.get("markers").getAsJsonArray();
@@ -130,7 +136,14 @@ public class MinecraftURLOverlayImageMap extends URLStaticImageMap {
         for (Future<MapView> future : mapViewsFuture) {
             mapViews.add(future.get());
         }
-        MinecraftURLOverlayImageMap map = new MinecraftURLOverlayImageMap(manager, imageIndex, name, url, cachedImages, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime);
+        boolean lazy = ImageFrame.lazyMapData && json.has("colors");
+        byte[][] cachedColors = json.has("colors") && !lazy ? PackedMapColorsFile.readStatic(new File(folder, json.get("colors").getAsString())) : null;
+        MinecraftURLOverlayImageMap map = new MinecraftURLOverlayImageMap(manager, imageIndex, name, url, cachedImages, cachedColors, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime);
+        if (lazy) {
+            map.markDataUnloaded();
+        } else if (cachedColors == null) {
+            map.save();
+        }
         return FutureUtils.callSyncMethod(() -> {
             for (int u = 0; u < mapViews.size(); u++) {
                 MapView mapView = mapViews.get(u);
@@ -145,8 +158,8 @@ public class MinecraftURLOverlayImageMap extends URLStaticImageMap {
         });
     }
 
-    protected MinecraftURLOverlayImageMap(ImageMapManager manager, int imageIndex, String name, String url, FileLazyMappedBufferedImage[] cachedImages, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
-        super(manager, imageIndex, name, url, cachedImages, mapViews, mapIds, mapMarkers, width, height, creator, hasAccess, creationTime);
+    protected MinecraftURLOverlayImageMap(ImageMapManager manager, int imageIndex, String name, String url, FileLazyMappedBufferedImage[] cachedImages, byte[][] cachedColors, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
+        super(manager, imageIndex, name, url, cachedImages, cachedColors, mapViews, mapIds, mapMarkers, width, height, creator, hasAccess, creationTime);
     }
 
     @Override
@@ -169,6 +182,11 @@ public class MinecraftURLOverlayImageMap extends URLStaticImageMap {
         return false;
     }
 
+    @Override
+    public boolean supportsPacketOnlyDelivery() {
+        return false;
+    }
+
     @Override
     public void stop() {
         for (MapView mapView : mapViews) {
@@ -182,42 +200,200 @@ public class MinecraftURLOverlayImageMap extends URLStaticImageMap {
 
     public static class MinecraftURLOverlayImageMapRenderer extends URLStaticImageMapRenderer {
 
+        private static volatile boolean vanillaCursorRenderUnsupported = false;
+
         private final MinecraftURLOverlayImageMap parent;
+        private volatile byte[][] cachedLayer;
+        private volatile OverlayComposite cachedComposite;
 
         public MinecraftURLOverlayImageMapRenderer(MinecraftURLOverlayImageMap parent, int index) {
             super(parent, index);
             this.parent = parent;
+            this.cachedLayer = null;
+            this.cachedComposite = null;
         }
 
         @Override
         public void render(MapView mapView, MapCanvas canvas, Player player) {
+            byte[][] cachedColors = parent.cachedColors;
+            parent.requestDataLoad();
             byte[] colors;
-            if (parent.cachedColors != null && parent.cachedColors[index] != null) {
-                colors = parent.cachedColors[index];
-            } else if (parent.cachedImages[index] != null) {
-                colors = MapPalette.imageToBytes(parent.cachedImages[index].get());
+            if (cachedColors != null && cachedColors[index] != null) {
+                colors = cachedColors[index];
             } else {
                 colors = null;
             }
-            MutablePair<byte[], Collection<MapCursor>> renderData = new MutablePair<>(colors, parent.getMapMarkers().get(index).values());
-            manager.callRenderEventListener(manager, imageMap, mapView, player, renderData);
+            MapRenderData renderData = new MapRenderData(colors, parent.getMapMarkers().get(index).values());
+            boolean altered = applyRenderEventListeners(mapView, player, renderData);
             colors = renderData.getFirst();
             if (colors != null) {
-                for (int i = 0; i < colors.length; i++) {
-                    byte color = colors[i];
-                    if (color != MapPalette.TRANSPARENT) {
-                        canvas.setPixel(i % MapUtils.MAP_WIDTH, i / MapUtils.MAP_WIDTH, color);
-                    }
-                }
+                writeCanvas(canvas, altered ? toLayer(colors) : getLayer(colors), altered);
             }
             canvas.setCursors(MapUtils.toMapCursorCollection(renderData.getSecond()));
+            MapRenderData.release(renderData);
+        }
+
+        private byte[] getLayer(byte[] colors) {
+            byte[][] cachedLayer = this.cachedLayer;
+            if (cachedLayer != null && cachedLayer[0] == colors) {
+                return cachedLayer[1];
+            }
+            byte[] layer = toLayer(colors);
+            this.cachedLayer = new byte[][] {colors, layer};
+            return layer;
+        }
+
+        private byte[] toLayer(byte[] colors) {
+            //the canvas layer skips -1 when composited onto the vanilla map, unlike transparent
+            byte[] layer = new byte[colors.length];
+            for (int i = 0; i < colors.length; i++) {
+                byte color = colors[i];
+                layer[i] = color == MapPalette.TRANSPARENT ? -1 : color;
+            }
+            return layer;
+        }
+
+        @Override
+        public boolean isPacketCacheable() {
+            return false;
         }
 
         @SuppressWarnings("unchecked")
         @Override
         public MutablePair<byte[], Collection<MapCursor>> renderMap(MapView mapView, Player player) {
-            return (MutablePair<byte[], Collection<MapCursor>>) (MutablePair<byte[], ?>) MapUtils.bukkitRenderMap(mapView, player);
+            if (!isCompositeCacheable(mapView)) {
+                return (MutablePair<byte[], Collection<MapCursor>>) (MutablePair<byte[], ?>) MapUtils.bukkitRenderMap(mapView, player);
+            }
+            byte[] worldColors = MapUtils.getColors(mapView);
+            long worldColorsHash = worldColors == null ? 0 : MapClientStateManager.hashColors(worldColors);
+            long contentVersion = imageMap.getContentVersion();
+            OverlayComposite composite = cachedComposite;
+            if (composite != null && composite.worldColorsHash == worldColorsHash && composite.contentVersion == contentVersion) {
+                ArrayList<MapCursor> cursors = renderCursors(mapView, player);
+                if (cursors != null) {
+                    return new MapRenderData(composite.colors, cursors);
+                }
+            }
+            MutablePair<byte[], ArrayList<MapCursor>> rendered = MapUtils.bukkitRenderMap(mapView, player);
+            cachedComposite = new OverlayComposite(worldColorsHash, contentVersion, rendered.getFirst().clone());
+            return new MapRenderData(cachedComposite.colors, new ArrayList<>(rendered.getSecond()));
+        }
+
+        private boolean isCompositeCacheable(MapView mapView) {
+            if (manager.hasPlayerDependentRenderEventListeners()) {
+                return false;
+            }
+            for (MapRenderer mapRenderer : mapView.getRenderers()) {
+                if (!(mapRenderer instanceof ImageMapRenderer) && !isVanillaRenderer(mapRenderer)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isVanillaRenderer(MapRenderer mapRenderer) {
+            return mapRenderer.getClass().getSimpleName().equals("CraftMapRenderer");
+        }
+
+        private ArrayList<MapCursor> renderCursors(MapView mapView, Player player) {
+            if (vanillaCursorRenderUnsupported) {
+                return null;
+            }
+            //only the vanilla decorations differ per player, so run just the vanilla renderer without its pixels
+            ArrayList<MapCursor> cursors = new ArrayList<>();
+            try {
+                for (MapRenderer mapRenderer : mapView.getRenderers()) {
+                    if (isVanillaRenderer(mapRenderer)) {
+                        CursorCollectingMapCanvas canvas = new CursorCollectingMapCanvas(mapView);
+                        mapRenderer.render(mapView, canvas, player);
+                        MapCursorCollection vanillaCursors = canvas.getCursors();
+                        for (int i = 0; i < vanillaCursors.size(); i++) {
+                            cursors.add(vanillaCursors.getCursor(i));
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                vanillaCursorRenderUnsupported = true;
+                return null;
+            }
+            parent.requestDataLoad();
+            byte[][] cachedColors = parent.cachedColors;
+            MapRenderData overlay = new MapRenderData(cachedColors == null ? null : cachedColors[index], parent.getMapMarkers().get(index).values());
+            applyRenderEventListeners(mapView, player, overlay);
+            Collection<MapCursor> overlayCursors = overlay.getSecond();
+            if (overlayCursors != null) {
+                cursors.addAll(overlayCursors);
+            }
+            MapRenderData.release(overlay);
+            return cursors;
         }
+
+        private static class CursorCollectingMapCanvas implements MapCanvas {
+
+            private final MapView mapView;
+            private MapCursorCollection cursors;
+
+            private CursorCollectingMapCanvas(MapView mapView) {
+                this.mapView = mapView;
+                this.cursors = new MapCursorCollection();
+            }
+
+            @Override
+            public MapView getMapView() {
+                return mapView;
+            }
+
+            @Override
+            public MapCursorCollection getCursors() {
+                return cursors;
+            }
+
+            @Override
+            public void setCursors(MapCursorCollection cursors) {
+                this.cursors = cursors;
+            }
+
+            @Override
+            public void setPixel(int x, int y, byte color) {
+                //pixels come from the cached composite
+            }
+
+            @Override
+            public byte getPixel(int x, int y) {
+                return 0;
+            }
+
+            @Override
+            public byte getBasePixel(int x, int y) {
+                return 0;
+            }
+
+            @Override
+            public void drawImage(int x, int y, Image image) {
+                //pixels come from the cached composite
+            }
+
+            @Override
+            public void drawText(int x, int y, MapFont font, String text) {
+                //pixels come from the cached composite
+            }
+
+        }
+
+        private static class OverlayComposite {
+
+            private final long worldColorsHash;
+            private final long contentVersion;
+            private final byte[] colors;
+
+            private OverlayComposite(long worldColorsHash, long contentVersion, byte[] colors) {
+                this.worldColorsHash = worldColorsHash;
+                this.contentVersion = contentVersion;
+                this.colors = colors;
+            }
+
+        }
+
     }
 
 }
@@ -31,17 +31,11 @@ import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.map.MapCursor;
-import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -92,7 +86,7 @@ public class NonUpdatableStaticImageMap extends ImageMap {
                 throw new RuntimeException(e);
             }
         }
-        NonUpdatableStaticImageMap map = new NonUpdatableStaticImageMap(manager, -1, name, Arrays.stream(images).map(i -> FileLazyMappedBufferedImage.fromImage(i)).toArray(FileLazyMappedBufferedImage[]::new), mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis());
+        NonUpdatableStaticImageMap map = new NonUpdatableStaticImageMap(manager, -1, name, Arrays.stream(images).map(i -> FileLazyMappedBufferedImage.fromImage(i)).toArray(FileLazyMappedBufferedImage[]::new), null, mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis());
         return FutureUtils.callAsyncMethod(() -> {
             FutureUtils.callSyncMethod(() -> {
                 for (int i = 0; i < mapViews.size(); i++) {
@@ -137,7 +131,9 @@ public class NonUpdatableStaticImageMap extends ImageMap {
             int mapId = jsonObject.get("mapid").getAsInt();
             mapIds.add(mapId);
             mapViewsFuture.add(MapUtils.getMapOrCreateMissing(world, mapId));
-            cachedImages[i] = FileLazyMappedBufferedImage.fromFile(new File(folder, jsonObject.get("image").getAsString()));
+            if (jsonObject.has("image")) {
+                cachedImages[i] = FileLazyMappedBufferedImage.fromFile(new File(folder, jsonObject.get("image").getAsString()));
+            }
             Map<String, MapCursor> mapCursors = new ConcurrentHashMap<>();
             if (jsonObject.has("markers")) {
                 JsonArray markerArray = jsonObject.get("markers").getAsJsonArray();
@@ -160,7 +156,14 @@ public class NonUpdatableStaticImageMap extends ImageMap {
         for (Future<MapView> future : mapViewsFuture) {
             mapViews.add(future.get());
         }
-        NonUpdatableStaticImageMap map = new NonUpdatableStaticImageMap(manager, imageIndex, name, cachedImages, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime);
+        boolean lazy = ImageFrame.lazyMapData && json.has("colors");
+        byte[][] cachedColors = json.has("colors") && !lazy ? PackedMapColorsFile.readStatic(new File(folder, json.get("colors").getAsString())) : null;
+        NonUpdatableStaticImageMap map = new NonUpdatableStaticImageMap(manager, imageIndex, name, cachedImages, cachedColors, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime);
+        if (lazy) {
+            map.markDataUnloaded();
+        } else if (cachedColors == null) {
+            map.save();
+        }
         return FutureUtils.callSyncMethod(() -> {
             for (int u = 0; u < mapViews.size(); u++) {
                 MapView mapView = mapViews.get(u);
@@ -175,12 +178,17 @@ public class NonUpdatableStaticImageMap extends ImageMap {
 
     protected final FileLazyMappedBufferedImage[] cachedImages;
 
-    protected byte[][] cachedColors;
+    protected volatile byte[][] cachedColors;
+    protected boolean colorsDirty;
 
-    protected NonUpdatableStaticImageMap(ImageMapManager manager, int imageIndex, String name, FileLazyMappedBufferedImage[] cachedImages, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
+    protected NonUpdatableStaticImageMap(ImageMapManager manager, int imageIndex, String name, FileLazyMappedBufferedImage[] cachedImages, byte[][] cachedColors, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
         super(manager, imageIndex, name, mapViews, mapIds, mapMarkers, width, height, creator, hasAccess, creationTime);
         this.cachedImages = cachedImages;
-        cacheColors();
+        if (cachedColors == null) {
+            cacheColors();
+        } else {
+            this.cachedColors = cachedColors;
+        }
     }
 
     public void cacheColors() {
@@ -190,23 +198,46 @@ public class NonUpdatableStaticImageMap extends ImageMap {
         if (cachedImages[0] == null) {
             return;
         }
-        cachedColors = new byte[cachedImages.length][];
-        int i = 0;
-        for (FileLazyMappedBufferedImage image : cachedImages) {
-            cachedColors[i++] = MapPalette.imageToBytes(image.get());
+        try {
+            byte[][] colors = ImageFrame.imageProcessor.process(cachedImages.length, i -> ImageFrame.mapColorQuantizer.imageToBytes(cachedImages[i].get())).toArray(new byte[0][]);
+            updateData(() -> {
+                cachedColors = colors;
+                colorsDirty = true;
+            });
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
     }
 
+    @Override
+    protected boolean canUnloadData() {
+        return !colorsDirty && imageIndex >= 0;
+    }
+
+    @Override
+    protected void loadData() throws Exception {
+        cachedColors = PackedMapColorsFile.readStatic(new File(new File(manager.getDataFolder(), String.valueOf(imageIndex)), PackedMapColorsFile.FILE_NAME));
+    }
+
+    @Override
+    protected void unloadData() {
+        cachedColors = null;
+    }
+
     @Override
     public ImageMap deepClone(String name, UUID creator) throws Exception {
         BufferedImage[] images = new BufferedImage[cachedImages.length];
+        byte[][] cachedColors = null;
         for (int i = 0; i < images.length; i++) {
-            BufferedImage image = cachedImages[i].get();
-            BufferedImage newImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = newImage.createGraphics();
-            g.drawImage(image, 0, 0, null);
-            g.dispose();
-            images[i] = newImage;
+            if (cachedImages[i] != null) {
+                images[i] = cachedImages[i].get();
+            } else {
+                if (cachedColors == null) {
+                    ensureDataLoaded();
+                    cachedColors = this.cachedColors;
+                }
+                images[i] = MapUtils.toImage(cachedColors[i]);
+            }
         }
         NonUpdatableStaticImageMap imageMap = create(manager, name, images, width, height, creator).get();
         List<Map<String, MapCursor>> newList = imageMap.getMapMarkers();
@@ -232,7 +263,7 @@ public class NonUpdatableStaticImageMap extends ImageMap {
     }
 
     @Override
-    public void save() throws Exception {
+    public synchronized void save() throws Exception {
         if (imageIndex < 0) {
             throw new IllegalStateException("ImageMap with index < 0 cannot be saved");
         }
@@ -255,7 +286,11 @@ public class NonUpdatableStaticImageMap extends ImageMap {
         for (int i = 0; i < mapViews.size(); i++) {
             JsonObject dataJson = new JsonObject();
             dataJson.addProperty("mapid", mapIds.get(i));
-            dataJson.addProperty("image", i + ".png");
+            FileLazyMappedBufferedImage image = cachedImages[i];
+            if (image != null) {
+                image.setFile(new File(folder, i + ".png"));
+                dataJson.addProperty("image", image.getFile().getName());
+            }
             JsonArray markerArray = new JsonArray();
             for (Map.Entry<String, MapCursor> entry : mapMarkers.get(i).entrySet()) {
                 MapCursor marker = entry.getValue();
@@ -273,13 +308,22 @@ public class NonUpdatableStaticImageMap extends ImageMap {
             mapDataJson.add(dataJson);
         }
         json.add("mapdata", mapDataJson);
-        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(new File(folder, "data.json").toPath()), StandardCharsets.UTF_8))) {
-            pw.println(GSON.toJson(json));
-            pw.flush();
+        json.addProperty("colors", PackedMapColorsFile.FILE_NAME);
+        byte[][] colors;
+        synchronized (dataLock) {
+            colors = colorsDirty ? cachedColors : null;
         }
-        for (int i = 0; i < cachedImages.length; i++) {
-            cachedImages[i].setFile(new File(folder, i +".png"));
+        boolean colorsWritten = colors != null;
+        if (colorsWritten) {
+            PackedMapColorsFile.writeStatic(new File(folder, PackedMapColorsFile.FILE_NAME), colors);
+            synchronized (dataLock) {
+                if (cachedColors == colors) {
+                    colorsDirty = false;
+                }
+            }
         }
+        writeData(folder, json);
+        manager.updateIndex(folder, json);
     }
 
     public static class NonUpdatableStaticImageMapRenderer extends ImageMapRenderer {
@@ -293,16 +337,16 @@ public class NonUpdatableStaticImageMap extends ImageMap {
 
         @Override
         public MutablePair<byte[], Collection<MapCursor>> renderMap(MapView mapView, Player player) {
+            byte[][] cachedColors = parent.cachedColors;
+            parent.requestDataLoad();
             byte[] colors;
-            if (parent.cachedColors != null && parent.cachedColors[index] != null) {
-                colors = parent.cachedColors[index];
-            } else if (parent.cachedImages[index] != null) {
-                colors = MapPalette.imageToBytes(parent.cachedImages[index].get());
+            if (cachedColors != null && cachedColors[index] != null) {
+                colors = cachedColors[index];
             } else {
                 colors = null;
             }
             Collection<MapCursor> cursors = parent.getMapMarkers().get(index).values();
-            return new MutablePair<>(colors, cursors);
+            return new MapRenderData(colors, cursors);
         }
     }
 
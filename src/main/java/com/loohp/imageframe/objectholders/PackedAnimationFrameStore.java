@@ -0,0 +1,147 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.loohp.imageframe.objectholders;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PackedAnimationFrameStore {
+
+    private static final AtomicInteger STORE_COUNTER = new AtomicInteger(0);
+    private static final HotFrameCache HOT_FRAME_CACHE = new HotFrameCache();
+
+    public static void setHotFrameCacheSize(int size) {
+        HOT_FRAME_CACHE.setMaxSize(size);
+    }
+
+    private final int storeId;
+    private final PackedMapColorsFile.Packed packed;
+    private final LastFrame[] lastFrames;
+
+    public PackedAnimationFrameStore(PackedMapColorsFile.Packed packed) {
+        this.storeId = STORE_COUNTER.getAndIncrement();
+        this.packed = packed;
+        this.lastFrames = new LastFrame[packed.getTiles()];
+    }
+
+    public PackedMapColorsFile.Packed getPacked() {
+        return packed;
+    }
+
+    public int getTiles() {
+        return packed.getTiles();
+    }
+
+    public int getFrames(int tile) {
+        return packed.getFrames(tile);
+    }
+
+    public int getContentId(int tile, int frame) {
+        return packed.getOffset(tile, frame);
+    }
+
+    public void close() {
+        packed.close();
+    }
+
+    public byte[] getColors(int tile, int frame) {
+        int offset = packed.getOffset(tile, frame);
+        LastFrame lastFrame = lastFrames[tile];
+        if (lastFrame != null && lastFrame.offset == offset) {
+            return lastFrame.colors;
+        }
+        byte[] colors = getColors(tile, frame, offset);
+        if (colors != null) {
+            lastFrames[tile] = new LastFrame(offset, colors);
+        }
+        return colors;
+    }
+
+    private byte[] getColors(int tile, int frame, int offset) {
+        long key = ((long) storeId << 32) | (offset & 0xFFFFFFFFL);
+        byte[] colors = HOT_FRAME_CACHE.get(key);
+        if (colors != null) {
+            return colors;
+        }
+        if (packed.getEncoding(tile, frame) == PackedMapColorsFile.ENCODING_DELTA) {
+            int base = packed.getBase(tile, frame);
+            int baseOffset = packed.getOffset(tile, base);
+            LastFrame lastFrame = lastFrames[tile];
+            byte[] baseColors = lastFrame != null && lastFrame.offset == baseOffset ? lastFrame.colors : getColors(tile, base, baseOffset);
+            colors = baseColors == null ? null : packed.applyDelta(baseColors, offset, packed.getLength(tile, frame));
+        } else {
+            colors = packed.readColors(offset);
+        }
+        if (colors == null) {
+            return null;
+        }
+        HOT_FRAME_CACHE.put(key, colors);
+        return colors;
+    }
+
+    private static class LastFrame {
+
+        private final int offset;
+        private final byte[] colors;
+
+        private LastFrame(int offset, byte[] colors) {
+            this.offset = offset;
+            this.colors = colors;
+        }
+
+    }
+
+    private static class HotFrameCache {
+
+        private final Map<Long, byte[]> cache;
+        private int maxSize;
+
+        private HotFrameCache() {
+            this.maxSize = 0;
+            this.cache = new LinkedHashMap<Long, byte[]>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        private synchronized void setMaxSize(int maxSize) {
+            this.maxSize = Math.max(0, maxSize);
+            if (cache.size() > this.maxSize) {
+                cache.clear();
+            }
+        }
+
+        private synchronized byte[] get(long key) {
+            return cache.get(key);
+        }
+
+        private synchronized void put(long key, byte[] colors) {
+            if (maxSize > 0) {
+                cache.put(key, colors);
+            }
+        }
+
+    }
+
+}
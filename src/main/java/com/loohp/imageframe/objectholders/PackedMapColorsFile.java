@@ -0,0 +1,495 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.loohp.imageframe.objectholders;
+
+import com.loohp.imageframe.utils.MapUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+public class PackedMapColorsFile {
+
+    public static final String FILE_NAME = "colors.bin";
+    public static final String LEGACY_IMAGE_BACKUP_FOLDER = "legacy";
+    public static final int COLORS_LENGTH = MapUtils.MAP_WIDTH * MapUtils.MAP_WIDTH;
+
+    public static final int ENCODING_RAW = 0;
+    public static final int ENCODING_DELTA = 1;
+
+    public static final int MAX_DELTA_CHAIN = 15;
+
+    private static final int FILE_MAGIC = 0x49464D43;
+    private static final int FILE_VERSION = 2;
+    private static final int ENTRY_SIZE = 16;
+    private static final int MIN_DELTA_GAP = 4;
+
+    private static final Pattern LEGACY_IMAGE_FILE_PATTERN = Pattern.compile("^[0-9]+\\.png$");
+    private static final Pattern COLORS_FILE_PATTERN = Pattern.compile("^colors(-[0-9a-z]+)?\\.bin$");
+
+    public static Packed open(File file, boolean memoryMapped) throws IOException {
+        ByteBuffer buffer;
+        if (memoryMapped) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        }
+        if (buffer.getInt() != FILE_MAGIC) {
+            throw new IOException("Not a packed map colors file: " + file.getAbsolutePath());
+        }
+        int version = buffer.getInt();
+        if (version != 1 && version != FILE_VERSION) {
+            throw new IOException("Unsupported packed map colors file version " + version + ": " + file.getAbsolutePath());
+        }
+        int tiles = buffer.getInt();
+        int[] frameCounts = new int[tiles];
+        for (int i = 0; i < tiles; i++) {
+            frameCounts[i] = buffer.getInt();
+        }
+        int[][] entries = new int[tiles][];
+        for (int i = 0; i < tiles; i++) {
+            int[] tileEntries = entries[i] = new int[frameCounts[i] * 4];
+            for (int u = 0; u < frameCounts[i]; u++) {
+                int encoding = buffer.getInt();
+                int base;
+                int length;
+                long offset;
+                if (version == 1) {
+                    base = -1;
+                    length = buffer.getInt();
+                    offset = buffer.getLong();
+                } else {
+                    base = buffer.getInt();
+                    length = buffer.getInt();
+                    offset = buffer.getInt() & 0xFFFFFFFFL;
+                }
+                boolean valid;
+                if (encoding == ENCODING_RAW) {
+                    valid = length == COLORS_LENGTH;
+                } else if (encoding == ENCODING_DELTA) {
+                    valid = base >= 0 && base < u && length >= 0;
+                } else {
+                    valid = false;
+                }
+                if (!valid || offset < 0 || offset + length > buffer.capacity()) {
+                    throw new IOException("Invalid packed map colors entry (" + encoding + ", " + base + ", " + length + ", " + offset + "): " + file.getAbsolutePath());
+                }
+                tileEntries[u * 4] = encoding;
+                tileEntries[u * 4 + 1] = base;
+                tileEntries[u * 4 + 2] = length;
+                tileEntries[u * 4 + 3] = (int) offset;
+            }
+        }
+        return new Packed(file, buffer, buffer.position(), entries);
+    }
+
+    public static byte[][][] read(File file) throws IOException {
+        Packed packed = open(file, false);
+        byte[][][] colors = new byte[packed.getTiles()][][];
+        for (int i = 0; i < colors.length; i++) {
+            byte[][] frames = colors[i] = new byte[packed.getFrames(i)][];
+            Map<Integer, byte[]> distinct = new HashMap<>();
+            for (int u = 0; u < frames.length; u++) {
+                int offset = packed.getOffset(i, u);
+                byte[] data = distinct.get(offset);
+                if (data == null) {
+                    if (packed.getEncoding(i, u) == ENCODING_DELTA) {
+                        data = packed.applyDelta(frames[packed.getBase(i, u)], offset, packed.getLength(i, u));
+                    } else {
+                        data = packed.readColors(offset);
+                    }
+                    distinct.put(offset, data);
+                }
+                frames[u] = data;
+            }
+        }
+        return colors;
+    }
+
+    public static Packed encode(byte[][][] colors) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        List<byte[]> rawFrames = new ArrayList<>();
+        List<Integer> rawOffsets = new ArrayList<>();
+        Map<Integer, List<Integer>> rawByHash = new HashMap<>();
+        int[][] entries = new int[colors.length][];
+        for (int i = 0; i < colors.length; i++) {
+            byte[][] frames = colors[i];
+            int[] tileEntries = entries[i] = new int[frames.length * 4];
+            int[] chainLengths = new int[frames.length];
+            Map<Integer, List<Integer>> framesByHash = new HashMap<>();
+            for (int u = 0; u < frames.length; u++) {
+                byte[] frame = frames[u];
+                if (frame == null || frame.length != COLORS_LENGTH) {
+                    throw new IllegalArgumentException("colors must be " + COLORS_LENGTH + " bytes long");
+                }
+                int hash = Arrays.hashCode(frame);
+                List<Integer> candidates = framesByHash.computeIfAbsent(hash, k -> new ArrayList<>(1));
+                int same = -1;
+                for (int candidate : candidates) {
+                    if (frames[candidate] == frame || Arrays.equals(frames[candidate], frame)) {
+                        same = candidate;
+                        break;
+                    }
+                }
+                if (same >= 0) {
+                    System.arraycopy(tileEntries, same * 4, tileEntries, u * 4, 4);
+                    chainLengths[u] = chainLengths[same];
+                    continue;
+                }
+                candidates.add(u);
+                byte[] delta = u > 0 && chainLengths[u - 1] < MAX_DELTA_CHAIN ? encodeDelta(frames[u - 1], frame) : null;
+                if (delta != null && delta.length < COLORS_LENGTH / 2) {
+                    tileEntries[u * 4] = ENCODING_DELTA;
+                    tileEntries[u * 4 + 1] = u - 1;
+                    tileEntries[u * 4 + 2] = delta.length;
+                    tileEntries[u * 4 + 3] = data.size();
+                    chainLengths[u] = chainLengths[u - 1] + 1;
+                    data.write(delta, 0, delta.length);
+                } else {
+                    List<Integer> rawCandidates = rawByHash.computeIfAbsent(hash, k -> new ArrayList<>(1));
+                    int offset = -1;
+                    for (int candidate : rawCandidates) {
+                        byte[] other = rawFrames.get(candidate);
+                        if (other == frame || Arrays.equals(other, frame)) {
+                            offset = rawOffsets.get(candidate);
+                            break;
+                        }
+                    }
+                    if (offset < 0) {
+                        offset = data.size();
+                        rawCandidates.add(rawFrames.size());
+                        rawFrames.add(frame);
+                        rawOffsets.add(offset);
+                        data.write(frame, 0, frame.length);
+                    }
+                    tileEntries[u * 4] = ENCODING_RAW;
+                    tileEntries[u * 4 + 1] = -1;
+                    tileEntries[u * 4 + 2] = COLORS_LENGTH;
+                    tileEntries[u * 4 + 3] = offset;
+                    chainLengths[u] = 0;
+                }
+            }
+        }
+        return new Packed(null, ByteBuffer.wrap(data.toByteArray()), 0, entries);
+    }
+
+    public static void write(File file, byte[][][] colors) throws IOException {
+        write(file, encode(colors));
+    }
+
+    public static void write(File file, Packed packed) throws IOException {
+        int entries = 0;
+        for (int i = 0; i < packed.getTiles(); i++) {
+            entries += packed.getFrames(i);
+        }
+        long dataOffset = 12L + packed.getTiles() * 4L + (long) entries * ENTRY_SIZE;
+        if (dataOffset + packed.getDataSize() > Integer.MAX_VALUE) {
+            throw new IOException("Packed map colors file too large: " + file.getAbsolutePath());
+        }
+        ByteBuffer header = ByteBuffer.allocate((int) dataOffset);
+        header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(packed.getTiles());
+        for (int i = 0; i < packed.getTiles(); i++) {
+            header.putInt(packed.getFrames(i));
+        }
+        for (int i = 0; i < packed.getTiles(); i++) {
+            for (int u = 0; u < packed.getFrames(i); u++) {
+                header.putInt(packed.getEncoding(i, u)).putInt(packed.getBase(i, u)).putInt(packed.getLength(i, u)).putInt((int) (dataOffset + packed.getOffset(i, u) - packed.getDataOffset()));
+            }
+        }
+        header.flip();
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            packed.writeData(channel);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static byte[] encodeDelta(byte[] previous, byte[] current) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = current.length;
+        int position = 0;
+        int i = 0;
+        while (true) {
+            while (i < length && previous[i] == current[i]) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            int start = i;
+            int end = i;
+            //unchanged gaps shorter than an op header are cheaper to copy through
+            while (i < length) {
+                if (previous[i] != current[i]) {
+                    end = ++i;
+                } else if (i - end >= MIN_DELTA_GAP) {
+                    break;
+                } else {
+                    i++;
+                }
+            }
+            int skip = start - position;
+            int count = end - start;
+            out.write(skip >> 8);
+            out.write(skip);
+            out.write(count >> 8);
+            out.write(count);
+            out.write(current, start, count);
+            position = end;
+            i = end;
+        }
+        return out.toByteArray();
+    }
+
+    public static String newFileName(File folder) {
+        long id = System.currentTimeMillis();
+        String name;
+        do {
+            name = "colors-" + Long.toString(id++, 36) + ".bin";
+        } while (new File(folder, name).exists());
+        return name;
+    }
+
+    public static void deleteOtherColorsFiles(File folder, String keep) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && !name.equals(keep) && COLORS_FILE_PATTERN.matcher(name).matches() && !file.delete()) {
+                //still mapped somewhere on windows, retried on the next save
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    public static byte[][] readStatic(File file) throws IOException {
+        byte[][][] colors = read(file);
+        byte[][] result = new byte[colors.length][];
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i].length != 1) {
+                throw new IOException("Packed map colors file is not static: " + file.getAbsolutePath());
+            }
+            result[i] = colors[i][0];
+        }
+        return result;
+    }
+
+    public static void writeStatic(File file, byte[][] colors) throws IOException {
+        byte[][][] packed = new byte[colors.length][][];
+        for (int i = 0; i < colors.length; i++) {
+            packed[i] = new byte[][] {colors[i]};
+        }
+        write(file, packed);
+    }
+
+    public static void backupLegacyImageFiles(File folder) throws IOException {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        File backupFolder = new File(folder, LEGACY_IMAGE_BACKUP_FOLDER);
+        for (File file : files) {
+            if (file.isFile() && LEGACY_IMAGE_FILE_PATTERN.matcher(file.getName()).matches()) {
+                backupFolder.mkdirs();
+                Files.move(file.toPath(), new File(backupFolder, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleanerMethod;
+            try {
+                invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                //java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafeField.setAccessible(true);
+            invokeCleanerMethod.invoke(theUnsafeField.get(null), buffer);
+        } catch (Throwable e) {
+            //left to the garbage collector
+        }
+    }
+
+    public static class Packed {
+
+        private final File file;
+        private final ByteBuffer buffer;
+        private final int dataOffset;
+        private final int[][] entries;
+        private final ReadWriteLock closeLock;
+        private boolean closed;
+
+        private Packed(File file, ByteBuffer buffer, int dataOffset, int[][] entries) {
+            this.file = file;
+            this.buffer = buffer;
+            this.dataOffset = dataOffset;
+            this.entries = entries;
+            this.closeLock = new ReentrantReadWriteLock();
+            this.closed = false;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getTiles() {
+            return entries.length;
+        }
+
+        public int getFrames(int tile) {
+            return entries[tile].length / 4;
+        }
+
+        public int getEncoding(int tile, int frame) {
+            return entries[tile][frame * 4];
+        }
+
+        public int getBase(int tile, int frame) {
+            return entries[tile][frame * 4 + 1];
+        }
+
+        public int getLength(int tile, int frame) {
+            return entries[tile][frame * 4 + 2];
+        }
+
+        public int getOffset(int tile, int frame) {
+            return entries[tile][frame * 4 + 3];
+        }
+
+        public int getDataOffset() {
+            return dataOffset;
+        }
+
+        public int getDataSize() {
+            return buffer.capacity() - dataOffset;
+        }
+
+        private void writeData(FileChannel channel) throws IOException {
+            closeLock.readLock().lock();
+            try {
+                if (closed) {
+                    throw new IOException("Packed map colors file is closed: " + file.getAbsolutePath());
+                }
+                ByteBuffer data = buffer.duplicate();
+                data.position(dataOffset);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } finally {
+                closeLock.readLock().unlock();
+            }
+        }
+
+        public byte[] readColors(int offset) {
+            closeLock.readLock().lock();
+            try {
+                if (closed) {
+                    return null;
+                }
+                byte[] data = new byte[COLORS_LENGTH];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(offset);
+                slice.get(data);
+                return data;
+            } finally {
+                closeLock.readLock().unlock();
+            }
+        }
+
+        public byte[] applyDelta(byte[] base, int offset, int length) {
+            closeLock.readLock().lock();
+            try {
+                if (closed) {
+                    return null;
+                }
+                byte[] data = Arrays.copyOf(base, COLORS_LENGTH);
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(offset);
+                slice.limit(offset + length);
+                int position = 0;
+                while (slice.hasRemaining()) {
+                    position += slice.getShort() & 0xFFFF;
+                    int count = slice.getShort() & 0xFFFF;
+                    slice.get(data, position, count);
+                    position += count;
+                }
+                return data;
+            } finally {
+                closeLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Unmaps a memory-mapped file once no read is in progress, so the file can be deleted on windows.
+         * Reads return null afterwards. Heap backed files are left to the garbage collector and stay readable.
+         */
+        public void close() {
+            if (!(buffer instanceof MappedByteBuffer)) {
+                return;
+            }
+            closeLock.writeLock().lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    unmap(buffer);
+                }
+            } finally {
+                closeLock.writeLock().unlock();
+            }
+        }
+
+    }
+
+}
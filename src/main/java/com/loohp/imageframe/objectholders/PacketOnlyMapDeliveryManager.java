@@ -0,0 +1,227 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.loohp.imageframe.ImageFrame;
+import com.loohp.imageframe.utils.MapUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.map.MapView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PacketOnlyMapDeliveryManager implements Listener, AutoCloseable {
+
+    public static final int DELIVERY_CHECK_PERIOD = 10;
+
+    private final Map<Integer, MapView> packetOnlyMapViews;
+    private final Map<UUID, Map<Integer, Long>> deliveredVersions;
+    private final Set<UUID> pendingInventoryScans;
+    private final PacketAdapter packetListener;
+    private final Scheduler.ScheduledTask task;
+
+    public PacketOnlyMapDeliveryManager() {
+        this.packetOnlyMapViews = new ConcurrentHashMap<>();
+        this.deliveredVersions = new ConcurrentHashMap<>();
+        this.pendingInventoryScans = ConcurrentHashMap.newKeySet();
+        for (ImageMap imageMap : ImageFrame.imageMapManager.getMaps()) {
+            addMap(imageMap);
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            pendingInventoryScans.add(player.getUniqueId());
+        }
+        this.packetListener = new PacketAdapter(ImageFrame.plugin, ListenerPriority.NORMAL, PacketType.Play.Server.MAP) {
+            @Override
+            public void onPacketSending(PacketEvent event) {
+                PacketContainer packet = event.getPacket();
+                if (ImageFrame.packetOnlyMapDelivery && packetOnlyMapViews.containsKey(packet.getIntegers().read(0)) && !MapUtils.isImageFramePacket(packet)) {
+                    event.setCancelled(true);
+                }
+            }
+        };
+        ProtocolLibrary.getProtocolManager().addPacketListener(packetListener);
+        Bukkit.getPluginManager().registerEvents(this, ImageFrame.plugin);
+        this.task = Scheduler.runTaskTimer(ImageFrame.plugin, () -> checkDeliveries(), 0, DELIVERY_CHECK_PERIOD);
+    }
+
+    @Override
+    public void close() {
+        ProtocolLibrary.getProtocolManager().removePacketListener(packetListener);
+        HandlerList.unregisterAll(this);
+        task.cancel();
+        packetOnlyMapViews.clear();
+        deliveredVersions.clear();
+    }
+
+    public void addMap(ImageMap imageMap) {
+        if (imageMap.supportsPacketOnlyDelivery()) {
+            for (MapView mapView : imageMap.getMapViews()) {
+                packetOnlyMapViews.put(mapView.getId(), mapView);
+            }
+        }
+    }
+
+    public void removeMap(ImageMap imageMap) {
+        for (MapView mapView : imageMap.getMapViews()) {
+            packetOnlyMapViews.remove(mapView.getId());
+            for (Map<Integer, Long> versions : deliveredVersions.values()) {
+                versions.remove(mapView.getId());
+            }
+        }
+    }
+
+    public boolean isPacketOnly(int mapId) {
+        return ImageFrame.packetOnlyMapDelivery && packetOnlyMapViews.containsKey(mapId);
+    }
+
+    private void checkDeliveries() {
+        if (!ImageFrame.packetOnlyMapDelivery) {
+            if (!deliveredVersions.isEmpty()) {
+                deliveredVersions.clear();
+            }
+            return;
+        }
+        Map<UUID, Set<Integer>> trackedMapIds = getTrackedMapIds();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Set<Integer> candidates = new LinkedHashSet<>();
+            addItemMapId(candidates, player.getEquipment().getItemInMainHand());
+            addItemMapId(candidates, player.getEquipment().getItemInOffHand());
+            if (pendingInventoryScans.remove(player.getUniqueId())) {
+                for (ItemStack itemStack : player.getInventory().getContents()) {
+                    addItemMapId(candidates, itemStack);
+                }
+            }
+            Set<Integer> tracked = trackedMapIds.get(player.getUniqueId());
+            if (tracked != null) {
+                candidates.addAll(tracked);
+            }
+            deliver(player, candidates);
+        }
+    }
+
+    private Map<UUID, Set<Integer>> getTrackedMapIds() {
+        //the server still ticks framed maps for every player tracking the frame, only the packets are cancelled
+        Map<UUID, Set<Integer>> trackedMapIds = new HashMap<>();
+        for (Map.Entry<Integer, MapView> entry : packetOnlyMapViews.entrySet()) {
+            Set<Player> viewers = MapUtils.getViewers(entry.getValue());
+            if (viewers == null) {
+                continue;
+            }
+            for (Player viewer : viewers) {
+                trackedMapIds.computeIfAbsent(viewer.getUniqueId(), k -> new LinkedHashSet<>()).add(entry.getKey());
+            }
+        }
+        return trackedMapIds;
+    }
+
+    private void addItemMapId(Set<Integer> mapIds, ItemStack itemStack) {
+        MapView mapView = MapUtils.getItemMapView(itemStack);
+        if (mapView != null) {
+            mapIds.add(mapView.getId());
+        }
+    }
+
+    private void deliver(Player player, Set<Integer> mapIds) {
+        List<MapView> pending = new ArrayList<>();
+        for (int mapId : mapIds) {
+            MapView mapView = packetOnlyMapViews.get(mapId);
+            if (mapView == null) {
+                continue;
+            }
+            ImageMap imageMap = ImageFrame.imageMapManager.getFromMapView(mapView);
+            if (imageMap != null && markDelivered(player, mapId, imageMap.getContentVersion())) {
+                pending.add(mapView);
+            }
+        }
+        if (!pending.isEmpty()) {
+            MapUtils.sendImageMaps(pending, Collections.singleton(player));
+        }
+    }
+
+    private boolean markDelivered(Player player, int mapId, long contentVersion) {
+        Long previous = deliveredVersions.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>()).put(mapId, contentVersion);
+        return previous == null || previous != contentVersion;
+    }
+
+    private void invalidate(Player player) {
+        deliveredVersions.remove(player.getUniqueId());
+        pendingInventoryScans.add(player.getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryOpen(InventoryOpenEvent event) {
+        if (!ImageFrame.packetOnlyMapDelivery || !(event.getPlayer() instanceof Player)) {
+            return;
+        }
+        Set<Integer> mapIds = new LinkedHashSet<>();
+        for (ItemStack itemStack : event.getInventory().getContents()) {
+            addItemMapId(mapIds, itemStack);
+        }
+        deliver((Player) event.getPlayer(), mapIds);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        deliveredVersions.remove(event.getPlayer().getUniqueId());
+        pendingInventoryScans.remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+public class PagedIntBitSet {
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_BITS = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_BITS - 1;
+    private static final int PAGE_WORDS = PAGE_BITS / 64;
+
+    private volatile AtomicLongArray[] pages;
+    private final Map<Integer, AtomicLongArray> negativePages;
+    private final AtomicInteger size;
+
+    public PagedIntBitSet() {
+        this.pages = new AtomicLongArray[0];
+        this.negativePages = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger(0);
+    }
+
+    private AtomicLongArray getPage(int key) {
+        if (key < 0) {
+            return negativePages.get(key);
+        }
+        AtomicLongArray[] pages = this.pages;
+        return key < pages.length ? pages[key] : null;
+    }
+
+    private AtomicLongArray getOrCreatePage(int key) {
+        if (key < 0) {
+            return negativePages.computeIfAbsent(key, k -> new AtomicLongArray(PAGE_WORDS));
+        }
+        AtomicLongArray page = getPage(key);
+        if (page != null) {
+            return page;
+        }
+        synchronized (this) {
+            AtomicLongArray[] pages = this.pages;
+            if (key >= pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(key + 1, pages.length * 2));
+            } else if (pages[key] != null) {
+                return pages[key];
+            } else {
+                pages = pages.clone();
+            }
+            page = pages[key] = new AtomicLongArray(PAGE_WORDS);
+            this.pages = pages;
+            return page;
+        }
+    }
+
+    public boolean contains(int value) {
+        AtomicLongArray page = getPage(value >> PAGE_SHIFT);
+        if (page == null) {
+            return false;
+        }
+        int bit = value & PAGE_MASK;
+        return (page.get(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    public boolean add(int value) {
+        AtomicLongArray page = getOrCreatePage(value >> PAGE_SHIFT);
+        int bit = value & PAGE_MASK;
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+        while (true) {
+            long current = page.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (page.compareAndSet(word, current, current | mask)) {
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public synchronized void clear() {
+        pages = new AtomicLongArray[0];
+        negativePages.clear();
+        size.set(0);
+    }
+
+    public void forEach(IntConsumer consumer) {
+        for (Map.Entry<Integer, AtomicLongArray> entry : new TreeMap<>(negativePages).entrySet()) {
+            forEach(entry.getKey(), entry.getValue(), consumer);
+        }
+        AtomicLongArray[] pages = this.pages;
+        for (int key = 0; key < pages.length; key++) {
+            if (pages[key] != null) {
+                forEach(key, pages[key], consumer);
+            }
+        }
+    }
+
+    private static void forEach(int key, AtomicLongArray page, IntConsumer consumer) {
+        int base = key << PAGE_SHIFT;
+        for (int word = 0; word < PAGE_WORDS; word++) {
+            long bits = page.get(word);
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                consumer.accept(base + (word << 6) + bit);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[size()];
+        int[] position = new int[1];
+        forEach(value -> {
+            if (position[0] < result.length) {
+                result[position[0]++] = value;
+            }
+        });
+        return position[0] == result.length ? result : Arrays.copyOf(result, position[0]);
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.loohp.imageframe.objectholders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ParallelImageProcessor implements AutoCloseable {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger(0);
+
+    public static int resolveThreads(int threads) {
+        return threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    private final int threads;
+    private final ForkJoinPool pool;
+    private final AtomicInteger inFlight;
+    private volatile boolean closed;
+
+    public ParallelImageProcessor(int threads) {
+        this.threads = resolveThreads(threads);
+        int poolId = POOL_COUNTER.getAndIncrement();
+        this.pool = new ForkJoinPool(this.threads, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("ImageFrame-ImageProcessor-" + poolId + "-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.inFlight = new AtomicInteger(0);
+        this.closed = false;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public <T> List<T> process(int count, IntFunction<T> task) throws Exception {
+        if (count <= 0) {
+            return new ArrayList<>(0);
+        }
+        if (count == 1 || threads == 1 || pool.isShutdown()) {
+            return processSequentially(count, task);
+        }
+        inFlight.incrementAndGet();
+        try {
+            return pool.submit(() -> IntStream.range(0, count).parallel().mapToObj(task).collect(Collectors.toList())).get();
+        } catch (RejectedExecutionException e) {
+            return processSequentially(count, task);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            release();
+        }
+    }
+
+    private <T> List<T> processSequentially(int count, IntFunction<T> task) {
+        List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(task.apply(i));
+        }
+        return result;
+    }
+
+    public <T> Batch<T> newBatch() {
+        inFlight.incrementAndGet();
+        return new Batch<>(threads * 2);
+    }
+
+    private void release() {
+        if (inFlight.decrementAndGet() == 0 && closed) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting new work once every batch and process call started before this point has finished,
+     * so a config reload can swap processors without rejecting an update that is still submitting frames.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (inFlight.get() == 0) {
+            pool.shutdown();
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
+    public class Batch<T> {
+
+        private final Semaphore permits;
+        private final List<ForkJoinTask<T>> tasks;
+        private final AtomicBoolean finished;
+
+        private Batch(int maxInFlight) {
+            this.permits = new Semaphore(maxInFlight);
+            this.tasks = new ArrayList<>();
+            this.finished = new AtomicBoolean(false);
+        }
+
+        public void submit(Supplier<T> task) throws InterruptedException {
+            permits.acquire();
+            try {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        return task.get();
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                ForkJoinTask<T> inline = ForkJoinTask.adapt(task::get);
+                inline.quietlyInvoke();
+                tasks.add(inline);
+            } catch (Throwable e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        public int size() {
+            return tasks.size();
+        }
+
+        public List<T> join() throws Exception {
+            List<T> result = new ArrayList<>(tasks.size());
+            try {
+                for (ForkJoinTask<T> task : tasks) {
+                    result.add(task.get());
+                }
+            } catch (ExecutionException e) {
+                cancel();
+                throw unwrap(e);
+            } finally {
+                finish();
+            }
+            return result;
+        }
+
+        public void cancel() {
+            for (ForkJoinTask<T> task : tasks) {
+                task.cancel(false);
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+    }
+
+}
@@ -20,10 +20,12 @@
 
 package com.loohp.imageframe.objectholders;
 
+import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.PacketContainer;
 import com.loohp.imageframe.ImageFrame;
+import com.loohp.imageframe.utils.MapUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -32,37 +34,95 @@ import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.server.PluginDisableEvent;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 public class RateLimitedPacketSendingManager implements Listener {
 
+    public static final int SENDING_THREADS = 4;
+    public static final int DEFAULT_PACKET_SIZE = 64;
+
+    private static final Comparator<ScheduleEntry> SCHEDULE_ENTRY_COMPARATOR = Comparator.<ScheduleEntry>comparingDouble(e -> e.score).thenComparingLong(e -> e.sequence);
+
     private final ProtocolManager protocolManager;
     private final Map<Player, Long> loginTime;
-    private final Map<Player, Queue<ScheduleEntry>> playerPacketQueue;
-    private final ExecutorService packetSendingService;
+    private final Map<Player, PlayerPacketQueue> playerPacketQueue;
+    private final Map<Player, TokenBucket> playerBandwidth;
+    private final TokenBucket globalBandwidth;
+    private final ExecutorService[] packetSendingServices;
+    private final MapSendPriorityTracker priorityTracker;
+    private final AtomicLong elidedPackets;
+    private int roundRobinOffset;
 
     public RateLimitedPacketSendingManager() {
         this.protocolManager = ProtocolLibrary.getProtocolManager();
         this.loginTime = new ConcurrentHashMap<>();
         this.playerPacketQueue = new ConcurrentHashMap<>();
-        this.packetSendingService = Executors.newFixedThreadPool(4);
+        this.playerBandwidth = new ConcurrentHashMap<>();
+        this.globalBandwidth = new TokenBucket(ImageFrame.mapPacketGlobalBandwidth, ImageFrame.mapPacketBandwidthBurstSeconds);
+        this.packetSendingServices = new ExecutorService[SENDING_THREADS];
+        for (int i = 0; i < packetSendingServices.length; i++) {
+            packetSendingServices[i] = Executors.newSingleThreadExecutor();
+        }
+        this.priorityTracker = new MapSendPriorityTracker();
+        this.elidedPackets = new AtomicLong(0);
+        this.roundRobinOffset = 0;
         Bukkit.getPluginManager().registerEvents(this, ImageFrame.plugin);
         Scheduler.runTaskTimerAsynchronously(ImageFrame.plugin, () -> run(), 0, 1);
+        Scheduler.runTaskTimer(ImageFrame.plugin, () -> updateBandwidthLimits(), 100, 100);
         for (Player player : Bukkit.getOnlinePlayers()) {
-            playerPacketQueue.put(player, new ConcurrentLinkedQueue<>());
+            playerPacketQueue.put(player, new PlayerPacketQueue());
+            playerBandwidth.put(player, new TokenBucket(ImageFrame.getPlayerBandwidthLimit(player), ImageFrame.mapPacketBandwidthBurstSeconds));
         }
     }
 
+    public MapSendPriorityTracker getPriorityTracker() {
+        return priorityTracker;
+    }
+
+    public long getElidedPacketCount() {
+        return elidedPackets.get();
+    }
+
     public boolean queue(Player player, PacketContainer packet, BiConsumer<Player, Boolean> completionCallback) {
-        Queue<ScheduleEntry> queue = playerPacketQueue.get(player);
+        return queue(player, packet, -1, -1, completionCallback);
+    }
+
+    public boolean queue(Player player, PacketContainer packet, int mapId, int locationMapId, BiConsumer<Player, Boolean> completionCallback) {
+        PlayerPacketQueue queue = playerPacketQueue.get(player);
         if (queue != null) {
-            return queue.add(new ScheduleEntry(packet, completionCallback));
+            ScheduleEntry scheduleEntry;
+            if (packet.getType().equals(PacketType.Play.Server.MAP)) {
+                scheduleEntry = new ScheduleEntry(packet, MapUtils.estimateMapPacketSize(packet), mapId, locationMapId, MapUtils.getMapPacketColorsLength(packet), completionCallback);
+            } else if (packet.getType().equals(PacketType.Play.Server.BUNDLE)) {
+                int size = 0;
+                List<Integer> bundledMapIds = new ArrayList<>();
+                for (PacketContainer bundledPacket : packet.getPacketBundles().read(0)) {
+                    if (bundledPacket.getType().equals(PacketType.Play.Server.MAP)) {
+                        size += MapUtils.estimateMapPacketSize(bundledPacket);
+                        bundledMapIds.add(bundledPacket.getIntegers().read(0));
+                    } else {
+                        size += DEFAULT_PACKET_SIZE;
+                    }
+                }
+                int[] mapIds = bundledMapIds.stream().mapToInt(i -> i).toArray();
+                scheduleEntry = new ScheduleEntry(packet, size, -1, mapIds, mapIds, 0, completionCallback);
+            } else {
+                scheduleEntry = new ScheduleEntry(packet, DEFAULT_PACKET_SIZE, -1, -1, 0, completionCallback);
+            }
+            if (!queue.add(scheduleEntry, getScore(player, scheduleEntry))) {
+                elidedPackets.incrementAndGet();
+            }
+            return true;
         }
         if (completionCallback != null) {
             completionCallback.accept(player, false);
@@ -70,24 +130,83 @@ public class RateLimitedPacketSendingManager implements Listener {
         return false;
     }
 
+    private double getScore(Player player, ScheduleEntry scheduleEntry) {
+        double score = MapSendPriorityTracker.UNKNOWN_SCORE;
+        for (int locationMapId : scheduleEntry.getLocationMapIds()) {
+            score = Math.min(score, priorityTracker.getScore(player.getUniqueId(), locationMapId));
+        }
+        return score;
+    }
+
+    public void updateBandwidthLimits() {
+        double burstSeconds = ImageFrame.mapPacketBandwidthBurstSeconds;
+        globalBandwidth.setRate(ImageFrame.mapPacketGlobalBandwidth, burstSeconds);
+        for (Map.Entry<Player, TokenBucket> entry : playerBandwidth.entrySet()) {
+            entry.getValue().setRate(ImageFrame.getPlayerBandwidthLimit(entry.getKey()), burstSeconds);
+        }
+    }
+
     private void run() {
         int rateLimit = ImageFrame.rateLimit;
         long now = System.currentTimeMillis();
-        for (Map.Entry<Player, Queue<ScheduleEntry>> entry : playerPacketQueue.entrySet()) {
+        globalBandwidth.refill(now);
+        List<Player> players = new ArrayList<>(playerPacketQueue.size());
+        List<PlayerPacketQueue> queues = new ArrayList<>(playerPacketQueue.size());
+        List<TokenBucket> buckets = new ArrayList<>(playerPacketQueue.size());
+        for (Map.Entry<Player, PlayerPacketQueue> entry : playerPacketQueue.entrySet()) {
             Player player = entry.getKey();
             if (now - loginTime.getOrDefault(player, now) < 500) {
                 continue;
             }
-            Queue<ScheduleEntry> queue = entry.getValue();
-            for (int counter = 0; rateLimit < 0 || counter < rateLimit; counter++) {
+            TokenBucket bucket = playerBandwidth.get(player);
+            if (bucket == null) {
+                continue;
+            }
+            bucket.refill(now);
+            PlayerPacketQueue queue = entry.getValue();
+            if (!queue.isEmpty()) {
+                queue.rescoreIfNeeded(player);
+                players.add(player);
+                queues.add(queue);
+                buckets.add(bucket);
+            }
+        }
+        int size = players.size();
+        if (size == 0) {
+            return;
+        }
+        int offset = Math.floorMod(roundRobinOffset++, size);
+        int[] counters = new int[size];
+        boolean progress = true;
+        while (progress && globalBandwidth.hasTokens()) {
+            progress = false;
+            for (int u = 0; u < size && globalBandwidth.hasTokens(); u++) {
+                int i = (offset + u) % size;
+                if ((rateLimit >= 0 && counters[i] >= rateLimit) || !buckets.get(i).hasTokens()) {
+                    continue;
+                }
+                PlayerPacketQueue queue = queues.get(i);
+                ScheduleEntry next = queue.peek();
+                if (next == null) {
+                    continue;
+                }
+                int packetCount = next.getPacketCount();
+                //a bundle too large for one tick's limit still goes out alone rather than blocking the queue
+                if (rateLimit >= 0 && counters[i] > 0 && counters[i] + packetCount > rateLimit) {
+                    continue;
+                }
                 ScheduleEntry scheduleEntry = queue.poll();
                 if (scheduleEntry == null) {
-                    break;
+                    continue;
                 }
-                packetSendingService.execute(() -> {
+                counters[i] += scheduleEntry.getPacketCount();
+                buckets.get(i).consume(scheduleEntry.getSize());
+                globalBandwidth.consume(scheduleEntry.getSize());
+                progress = true;
+                Player player = players.get(i);
+                getSendingService(player).execute(() -> {
                     protocolManager.sendServerPacket(player, scheduleEntry.getPacket());
-                    BiConsumer<Player, Boolean> completionCallback = scheduleEntry.getCompletionCallback();
-                    if (completionCallback != null) {
+                    for (BiConsumer<Player, Boolean> completionCallback : scheduleEntry.getCompletionCallbacks()) {
                         completionCallback.accept(player, true);
                     }
                 });
@@ -95,11 +214,16 @@ public class RateLimitedPacketSendingManager implements Listener {
         }
     }
 
+    private ExecutorService getSendingService(Player player) {
+        return packetSendingServices[Math.floorMod(player.getUniqueId().hashCode(), packetSendingServices.length)];
+    }
+
     @EventHandler
     public void onJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         loginTime.put(player, System.currentTimeMillis());
-        playerPacketQueue.put(player, new ConcurrentLinkedQueue<>());
+        playerPacketQueue.put(player, new PlayerPacketQueue());
+        playerBandwidth.put(player, new TokenBucket(ImageFrame.getPlayerBandwidthLimit(player), ImageFrame.mapPacketBandwidthBurstSeconds));
     }
 
     @EventHandler
@@ -107,31 +231,172 @@ public class RateLimitedPacketSendingManager implements Listener {
         Player player = event.getPlayer();
         loginTime.remove(player);
         playerPacketQueue.remove(player);
+        playerBandwidth.remove(player);
     }
 
     @EventHandler
     public void onPluginDisable(PluginDisableEvent event) {
         if (event.getPlugin().equals(ImageFrame.plugin)) {
-            packetSendingService.shutdown();
+            priorityTracker.close();
+            for (ExecutorService packetSendingService : packetSendingServices) {
+                packetSendingService.shutdown();
+            }
+        }
+    }
+
+    private class PlayerPacketQueue {
+
+        private PriorityQueue<ScheduleEntry> queue;
+        private final Map<Integer, ScheduleEntry> latestPendingEntries;
+        private long sequence;
+        private long viewVersion;
+
+        private PlayerPacketQueue() {
+            this.queue = new PriorityQueue<>(SCHEDULE_ENTRY_COMPARATOR);
+            this.latestPendingEntries = new HashMap<>();
+            this.sequence = 0;
+            this.viewVersion = 0;
+        }
+
+        private synchronized boolean add(ScheduleEntry scheduleEntry, double score) {
+            int mapId = scheduleEntry.getMapId();
+            if (mapId >= 0) {
+                ScheduleEntry pending = latestPendingEntries.get(mapId);
+                if (pending != null && pending.canBeSupersededBy(scheduleEntry)) {
+                    pending.supersede(scheduleEntry);
+                    return false;
+                }
+            }
+            for (int orderingMapId : scheduleEntry.getOrderingMapIds()) {
+                ScheduleEntry pending = latestPendingEntries.put(orderingMapId, scheduleEntry);
+                if (pending != null) {
+                    //never overtake an earlier packet for the same map
+                    score = Math.max(score, pending.score);
+                }
+            }
+            scheduleEntry.sequence = sequence++;
+            scheduleEntry.score = score;
+            queue.add(scheduleEntry);
+            return true;
+        }
+
+        private synchronized ScheduleEntry poll() {
+            ScheduleEntry scheduleEntry = queue.poll();
+            if (scheduleEntry != null) {
+                for (int orderingMapId : scheduleEntry.getOrderingMapIds()) {
+                    latestPendingEntries.remove(orderingMapId, scheduleEntry);
+                }
+            }
+            return scheduleEntry;
+        }
+
+        private synchronized ScheduleEntry peek() {
+            return queue.peek();
+        }
+
+        private synchronized boolean isEmpty() {
+            return queue.isEmpty();
         }
+
+        private synchronized void rescoreIfNeeded(Player player) {
+            long version = priorityTracker.getViewVersion(player.getUniqueId());
+            if (version == viewVersion) {
+                return;
+            }
+            viewVersion = version;
+            List<ScheduleEntry> entries = new ArrayList<>(queue);
+            entries.sort(Comparator.comparingLong(e -> e.sequence));
+            Map<Integer, Double> mapScores = new HashMap<>();
+            PriorityQueue<ScheduleEntry> rescored = new PriorityQueue<>(Math.max(1, queue.size()), SCHEDULE_ENTRY_COMPARATOR);
+            for (ScheduleEntry scheduleEntry : entries) {
+                double score = getScore(player, scheduleEntry);
+                for (int orderingMapId : scheduleEntry.getOrderingMapIds()) {
+                    Double previousScore = mapScores.get(orderingMapId);
+                    if (previousScore != null) {
+                        score = Math.max(score, previousScore);
+                    }
+                }
+                for (int orderingMapId : scheduleEntry.getOrderingMapIds()) {
+                    mapScores.put(orderingMapId, score);
+                }
+                scheduleEntry.score = score;
+                rescored.add(scheduleEntry);
+            }
+            queue = rescored;
+        }
+
     }
 
     public static class ScheduleEntry {
 
-        private final PacketContainer packet;
-        private final BiConsumer<Player, Boolean> completionCallback;
+        private PacketContainer packet;
+        private int size;
+        private final int mapId;
+        private final int[] orderingMapIds;
+        private final int[] locationMapIds;
+        private int colorsLength;
+        private final List<BiConsumer<Player, Boolean>> completionCallbacks;
+        private long sequence;
+        private double score;
 
-        public ScheduleEntry(PacketContainer packet, BiConsumer<Player, Boolean> completionCallback) {
+        public ScheduleEntry(PacketContainer packet, int size, int mapId, int[] orderingMapIds, int[] locationMapIds, int colorsLength, BiConsumer<Player, Boolean> completionCallback) {
             this.packet = packet;
-            this.completionCallback = completionCallback;
+            this.size = size;
+            this.mapId = mapId;
+            this.orderingMapIds = orderingMapIds;
+            this.locationMapIds = locationMapIds;
+            this.colorsLength = colorsLength;
+            this.completionCallbacks = new ArrayList<>(1);
+            if (completionCallback != null) {
+                completionCallbacks.add(completionCallback);
+            }
+        }
+
+        public ScheduleEntry(PacketContainer packet, int size, int mapId, int locationMapId, int colorsLength, BiConsumer<Player, Boolean> completionCallback) {
+            this(packet, size, mapId, mapId >= 0 ? new int[] {mapId} : new int[0], new int[] {locationMapId}, colorsLength, completionCallback);
+        }
+
+        public ScheduleEntry(PacketContainer packet, BiConsumer<Player, Boolean> completionCallback) {
+            this(packet, DEFAULT_PACKET_SIZE, -1, -1, 0, completionCallback);
+        }
+
+        public boolean canBeSupersededBy(ScheduleEntry scheduleEntry) {
+            return mapId >= 0 && mapId == scheduleEntry.mapId && (colorsLength == 0 || scheduleEntry.colorsLength == MapUtils.COLOR_ARRAY_LENGTH);
+        }
+
+        private void supersede(ScheduleEntry scheduleEntry) {
+            packet = scheduleEntry.packet;
+            size = scheduleEntry.size;
+            colorsLength = scheduleEntry.colorsLength;
+            completionCallbacks.addAll(scheduleEntry.completionCallbacks);
         }
 
         public PacketContainer getPacket() {
             return packet;
         }
 
-        public BiConsumer<Player, Boolean> getCompletionCallback() {
-            return completionCallback;
+        public int getSize() {
+            return size;
+        }
+
+        public int getMapId() {
+            return mapId;
+        }
+
+        public int[] getOrderingMapIds() {
+            return orderingMapIds;
+        }
+
+        public int getPacketCount() {
+            return Math.max(1, orderingMapIds.length);
+        }
+
+        public int[] getLocationMapIds() {
+            return locationMapIds;
+        }
+
+        public List<BiConsumer<Player, Boolean>> getCompletionCallbacks() {
+            return completionCallbacks;
         }
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * This file is part of ImageFrame.
+ *
+ * Copyright (C) 2023. LoohpJames <jamesloohp@gmail.com>
+ * Copyright (C) 2023. Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.loohp.imageframe.objectholders;
+
+public class TokenBucket {
+
+    private long rate;
+    private double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(long rate, double burstSeconds) {
+        this.lastRefill = System.currentTimeMillis();
+        setRate(rate, burstSeconds);
+        this.tokens = capacity;
+    }
+
+    public synchronized void setRate(long rate, double burstSeconds) {
+        this.rate = rate;
+        this.capacity = rate < 0 ? 0 : Math.max(1, rate * Math.max(0, burstSeconds));
+        if (tokens > capacity) {
+            tokens = capacity;
+        }
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return rate < 0;
+    }
+
+    public synchronized void refill(long now) {
+        long elapsed = now - lastRefill;
+        lastRefill = now;
+        if (rate >= 0 && elapsed > 0) {
+            tokens = Math.min(capacity, tokens + rate * elapsed / 1000.0);
+        }
+    }
+
+    public synchronized boolean hasTokens() {
+        return rate < 0 || tokens > 0;
+    }
+
+    public synchronized void consume(long amount) {
+        if (rate >= 0) {
+            tokens -= amount;
+        }
+    }
+
+}
@@ -33,16 +33,11 @@ import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.map.MapCursor;
-import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -51,10 +46,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 public class URLAnimatedImageMap extends URLImageMap {
 
@@ -79,7 +76,7 @@ public class URLAnimatedImageMap extends URLImageMap {
             mapViews.add(mapView);
             mapIds.add(mapView.getId());
         }
-        URLAnimatedImageMap map = new URLAnimatedImageMap(manager, -1, name, url, new FileLazyMappedBufferedImage[mapsCount][], mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis(), -1, 0);
+        URLAnimatedImageMap map = new URLAnimatedImageMap(manager, -1, name, url, new FileLazyMappedBufferedImage[mapsCount][], null, null, mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis(), -1, 0);
         return FutureUtils.callAsyncMethod(() -> {
             FutureUtils.callSyncMethod(() -> {
                 for (int i = 0; i < mapViews.size(); i++) {
@@ -125,11 +122,14 @@ public class URLAnimatedImageMap extends URLImageMap {
             int mapId = jsonObject.get("mapid").getAsInt();
             mapIds.add(mapId);
             mapViewsFuture.add(MapUtils.getMapOrCreateMissing(world, mapId));
-            JsonArray framesArray = jsonObject.get("images").getAsJsonArray();
-            FileLazyMappedBufferedImage[] images = new FileLazyMappedBufferedImage[framesArray.size()];
-            int u = 0;
-            for (JsonElement element : framesArray) {
-                images[u++] = FileLazyMappedBufferedImage.fromFile(new File(folder, element.getAsString()));
+            FileLazyMappedBufferedImage[] images = null;
+            if (jsonObject.has("images")) {
+                JsonArray framesArray = jsonObject.get("images").getAsJsonArray();
+                images = new FileLazyMappedBufferedImage[framesArray.size()];
+                int u = 0;
+                for (JsonElement element : framesArray) {
+                    images[u++] = FileLazyMappedBufferedImage.fromFile(new File(folder, element.getAsString()));
+                }
             }
             Map<String, MapCursor> mapCursors = new ConcurrentHashMap<>();
             if (jsonObject.has("markers")) {
@@ -153,9 +153,37 @@ public class URLAnimatedImageMap extends URLImageMap {
         for (Future<MapView> future : mapViewsFuture) {
             mapViews.add(future.get());
         }
+        PackedAnimationFrameStore frameStore = null;
+        String colorsFileName = null;
+        boolean lazy = ImageFrame.lazyMapData && json.has("colors") && json.has("timeline");
+        if (json.has("colors")) {
+            colorsFileName = json.get("colors").getAsString();
+            if (!lazy) {
+                frameStore = new PackedAnimationFrameStore(PackedMapColorsFile.open(new File(folder, colorsFileName), ImageFrame.memoryMappedAnimations));
+            }
+        }
+        int[] timeline;
+        if (json.has("timeline")) {
+            JsonArray timelineArray = json.get("timeline").getAsJsonArray();
+            timeline = new int[timelineArray.size()];
+            int u = 0;
+            for (JsonElement element : timelineArray) {
+                timeline[u++] = element.getAsInt();
+            }
+        } else {
+            timeline = IntStream.range(0, frameStore == null ? cachedImages[0].length : frameStore.getFrames(0)).toArray();
+        }
         int pausedAt = json.has("pausedAt") ? json.get("pausedAt").getAsInt() : -1;
         int tickOffset = json.has("tickOffset") ? json.get("tickOffset").getAsInt() : 0;
-        URLAnimatedImageMap map = new URLAnimatedImageMap(manager, imageIndex, name, url, cachedImages, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime, pausedAt, tickOffset);
+        URLAnimatedImageMap map = new URLAnimatedImageMap(manager, imageIndex, name, url, cachedImages, frameStore, timeline, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime, pausedAt, tickOffset);
+        if (lazy) {
+            map.colorsFileName = colorsFileName;
+            map.markDataUnloaded();
+        } else if (frameStore == null) {
+            map.save();
+        } else {
+            map.colorsFileName = colorsFileName;
+        }
         return FutureUtils.callSyncMethod(() -> {
             for (int u = 0; u < mapViews.size(); u++) {
                 MapView mapView = mapViews.get(u);
@@ -170,18 +198,23 @@ public class URLAnimatedImageMap extends URLImageMap {
 
     protected final FileLazyMappedBufferedImage[][] cachedImages;
 
-    protected byte[][][] cachedColors;
-    protected int[][] fakeMapIds;
-    protected Set<Integer> fakeMapIdsSet;
+    protected volatile AnimationData animationData;
+    protected String colorsFileName;
+    protected boolean colorsDirty;
     protected int pausedAt;
     protected int tickOffset;
 
-    protected URLAnimatedImageMap(ImageMapManager manager, int imageIndex, String name, String url, FileLazyMappedBufferedImage[][] cachedImages, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime, int pausedAt, int tickOffset) {
+    protected URLAnimatedImageMap(ImageMapManager manager, int imageIndex, String name, String url, FileLazyMappedBufferedImage[][] cachedImages, PackedAnimationFrameStore frameStore, int[] timeline, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime, int pausedAt, int tickOffset) {
         super(manager, imageIndex, name, url, mapViews, mapIds, mapMarkers, width, height, creator, hasAccess, creationTime);
         this.cachedImages = cachedImages;
         this.pausedAt = pausedAt;
         this.tickOffset = tickOffset;
-        cacheColors();
+        if (frameStore == null) {
+            this.animationData = new AnimationData(null, timeline, null, null);
+            cacheColors();
+        } else {
+            this.animationData = AnimationData.create(frameStore, timeline);
+        }
     }
 
     public void cacheColors() {
@@ -191,64 +224,75 @@ public class URLAnimatedImageMap extends URLImageMap {
         if (cachedImages[0] == null) {
             return;
         }
-        cachedColors = new byte[cachedImages.length][][];
-        fakeMapIds = new int[cachedColors.length][];
-        fakeMapIdsSet = new HashSet<>();
-        int i = 0;
-        for (FileLazyMappedBufferedImage[] images : cachedImages) {
-            byte[][] data = new byte[images.length][];
-            int[] madIds = new int[data.length];
-            Arrays.fill(madIds, -1);
-            int u = 0;
-            byte[] lastDistinctFrame = null;
-            for (FileLazyMappedBufferedImage image : images) {
-                byte[] b = MapPalette.imageToBytes(image.get());
-                if (u == 0 || !Arrays.equals(b, lastDistinctFrame)) {
-                    data[u] = b;
-                    int mapId = ImageMapManager.getNextFakeMapId();
-                    madIds[u] = mapId;
-                    fakeMapIdsSet.add(mapId);
-                    lastDistinctFrame = b;
-                }
-                u++;
-            }
-            cachedColors[i] = data;
-            fakeMapIds[i] = madIds;
-            i++;
+        int frames = cachedImages[0].length;
+        List<byte[]> colors;
+        try {
+            colors = ImageFrame.imageProcessor.process(cachedImages.length * frames, i -> ImageFrame.mapColorQuantizer.imageToBytes(cachedImages[i / frames][i % frames].get()));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        byte[][][] quantized = new byte[cachedImages.length][frames][];
+        for (int i = 0; i < colors.size(); i++) {
+            quantized[i / frames][i % frames] = colors.get(i);
+        }
+        cacheColors(quantized, animationData.timeline);
+    }
+
+    protected void cacheColors(byte[][][] quantized, int[] timeline) {
+        AnimationData animationData = AnimationData.create(new PackedAnimationFrameStore(PackedMapColorsFile.encode(quantized)), timeline);
+        updateData(() -> {
+            PackedAnimationFrameStore previous = this.animationData.frameStore;
+            this.animationData = animationData;
+            colorsDirty = true;
+            closeFrameStore(previous);
+        });
+    }
+
+    protected static void closeFrameStore(PackedAnimationFrameStore frameStore) {
+        if (frameStore != null) {
+            frameStore.close();
         }
     }
 
     @Override
     public void update(boolean save) throws Exception {
-        List<GifReader.ImageFrame> frames;
+        int tiles = width * height;
+        List<Integer> timeline = new ArrayList<>();
+        GifReader.Timeline timelineBuilder = new GifReader.Timeline();
+        ParallelImageProcessor.Batch<byte[][]> batch = ImageFrame.imageProcessor.newBatch();
         try {
-            frames = GifReader.readGif(HTTPRequestUtils.getInputStream(url)).get();
+            GifReader.readGif(() -> HTTPRequestUtils.getInputStream(url), frame -> {
+                int ticks = timelineBuilder.next(frame.getDelay());
+                if (ticks <= 0) {
+                    return;
+                }
+                int frameIndex = batch.size();
+                for (int i = 0; i < ticks; i++) {
+                    timeline.add(frameIndex);
+                }
+                BufferedImage image = frame.getImage();
+                batch.submit(() -> {
+                    BufferedImage resized = MapUtils.resize(image, width, height);
+                    byte[][] colors = new byte[tiles][];
+                    for (int i = 0; i < tiles; i++) {
+                        colors[i] = ImageFrame.mapColorQuantizer.imageToBytes(MapUtils.getSubImage(resized, i % width, i / width));
+                    }
+                    return colors;
+                });
+            });
         } catch (Exception e) {
+            batch.cancel();
             throw new RuntimeException("Unable to read or download animated gif, does this url directly links to the gif? (" + url + ")", e);
         }
-        List<BufferedImage> images = new ArrayList<>();
-        for (int currentTime = 0; ; currentTime += 50) {
-            int index = GifReader.getFrameAt(frames, currentTime);
-            if (index < 0) {
-                break;
+        List<byte[][]> processed = batch.join();
+        byte[][][] quantized = new byte[tiles][processed.size()][];
+        for (int index = 0; index < processed.size(); index++) {
+            byte[][] frame = processed.get(index);
+            for (int i = 0; i < tiles; i++) {
+                quantized[i][index] = frame[i];
             }
-            images.add(frames.get(index).getImage());
-        }
-        for (int i = 0; i < cachedImages.length; i++) {
-            cachedImages[i] = new FileLazyMappedBufferedImage[images.size()];
-        }
-        int index = 0;
-        for (BufferedImage image : images) {
-            image = MapUtils.resize(image, width, height);
-            int i = 0;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    cachedImages[i++][index] = FileLazyMappedBufferedImage.fromImage(MapUtils.getSubImage(image, x, y));
-                }
-            }
-            index++;
         }
-        cacheColors();
+        cacheColors(quantized, timeline.stream().mapToInt(i -> i).toArray());
         Bukkit.getPluginManager().callEvent(new ImageMapUpdatedEvent(this));
         if (save) {
             save();
@@ -282,11 +326,11 @@ public class URLAnimatedImageMap extends URLImageMap {
     public synchronized void setAnimationPause(boolean pause) throws Exception {
         if (pausedAt < 0 && pause) {
             pausedAt = getCurrentPositionInSequence();
-            save();
+            markDirty();
         } else if (pausedAt >= 0 && !pause) {
             setCurrentPositionInSequence(pausedAt);
             pausedAt = -1;
-            save();
+            markDirty();
         }
     }
 
@@ -308,48 +352,102 @@ public class URLAnimatedImageMap extends URLImageMap {
         ticks = Math.min(Math.max(0, ticks), totalTicks);
         if (isAnimationPaused()) {
             pausedAt = ticks;
-            save();
+            markDirty();
         } else {
             setCurrentPositionInSequence(ticks);
-            save();
+            markDirty();
+        }
+    }
+
+    protected static int getFrameIndex(int[] timeline, int position) {
+        return timeline == null || timeline.length == 0 ? -1 : timeline[position % timeline.length];
+    }
+
+    protected static int getPreviousFrameIndex(int[] timeline, int position) {
+        return timeline == null || timeline.length == 0 || position % timeline.length == 0 ? -1 : timeline[position % timeline.length - 1];
+    }
+
+    @Override
+    protected boolean canUnloadData() {
+        return !colorsDirty && colorsFileName != null && imageIndex >= 0;
+    }
+
+    @Override
+    protected void loadData() throws Exception {
+        File colorsFile = new File(new File(manager.getDataFolder(), String.valueOf(imageIndex)), colorsFileName);
+        PackedAnimationFrameStore frameStore = new PackedAnimationFrameStore(PackedMapColorsFile.open(colorsFile, ImageFrame.memoryMappedAnimations));
+        AnimationData animationData = this.animationData;
+        this.animationData = animationData.fakeMapIds == null ? AnimationData.create(frameStore, animationData.timeline) : animationData.withFrameStore(frameStore);
+        closeFrameStore(animationData.frameStore);
+    }
+
+    @Override
+    protected void unloadData() {
+        AnimationData animationData = this.animationData;
+        this.animationData = animationData.withFrameStore(null);
+        closeFrameStore(animationData.frameStore);
+    }
+
+    @Override
+    protected void markInvalid() {
+        super.markInvalid();
+        synchronized (dataLock) {
+            closeFrameStore(animationData.frameStore);
         }
     }
 
     @Override
     public byte[] getRawAnimationColors(int currentTick, int index) {
-        if (cachedColors == null) {
+        AnimationData animationData = this.animationData;
+        requestDataLoad();
+        PackedAnimationFrameStore frameStore = animationData.frameStore;
+        if (frameStore == null || index >= frameStore.getTiles()) {
+            return null;
+        }
+        int frames = frameStore.getFrames(index);
+        int frameIndex = getFrameIndex(animationData.timeline, currentTick);
+        if (frameIndex < 0 || frameIndex >= frames) {
             return null;
         }
-        byte[][] colors = cachedColors[index];
-        if (colors == null) {
+        int previousFrameIndex = getPreviousFrameIndex(animationData.timeline, currentTick);
+        if (previousFrameIndex >= 0 && previousFrameIndex < frames && frameStore.getContentId(index, previousFrameIndex) == frameStore.getContentId(index, frameIndex)) {
             return null;
         }
-        return colors[currentTick % colors.length];
+        return frameStore.getColors(index, frameIndex);
     }
 
     @Override
     public int getAnimationFakeMapId(int currentTick, int index) {
-        if (fakeMapIds == null) {
+        AnimationData animationData = this.animationData;
+        requestDataLoad();
+        if (animationData.fakeMapIds == null) {
             return -1;
         }
-        int[] mapIds = fakeMapIds[index];
+        int[] mapIds = animationData.fakeMapIds[index];
         if (mapIds == null) {
             return -1;
         }
-        return mapIds[currentTick % mapIds.length];
+        int frameIndex = getFrameIndex(animationData.timeline, currentTick);
+        if (frameIndex < 0 || frameIndex >= mapIds.length) {
+            return -1;
+        }
+        int previousFrameIndex = getPreviousFrameIndex(animationData.timeline, currentTick);
+        if (previousFrameIndex >= 0 && previousFrameIndex < mapIds.length && mapIds[previousFrameIndex] == mapIds[frameIndex]) {
+            return -1;
+        }
+        return mapIds[frameIndex];
     }
 
     @Override
     public void sendAnimationFakeMaps(Collection<? extends Player> players, MapPacketSentCallback completionCallback) {
+        ensureDataLoaded();
         int length = getSequenceLength();
+        Set<Integer> sent = new HashSet<>();
         for (int currentTick = 0; currentTick < length; currentTick++) {
-            for (int index = 0; index < fakeMapIds.length; index++) {
-                int[] mapIds = fakeMapIds[index];
-                if (currentTick < mapIds.length) {
-                    int mapId = mapIds[currentTick];
-                    if (mapId >= 0) {
-                        MapUtils.sendImageMap(mapId, mapViews.get(index), currentTick, players, completionCallback);
-                    }
+            for (int index = 0; index < mapViews.size(); index++) {
+                int mapId = getAnimationFakeMapId(currentTick, index);
+                if (mapId >= 0 && sent.add(mapId)) {
+                    MapUtils.sendImageMap(mapId, mapViews.get(index), currentTick, players, completionCallback);
                 }
             }
         }
@@ -357,12 +455,14 @@ public class URLAnimatedImageMap extends URLImageMap {
 
     @Override
     public Set<Integer> getFakeMapIds() {
-        return fakeMapIdsSet;
+        ensureDataLoaded();
+        return animationData.fakeMapIdsSet;
     }
 
     @Override
     public int getSequenceLength() {
-        return cachedImages[0].length;
+        int[] timeline = animationData.timeline;
+        return timeline == null || timeline.length == 0 ? 1 : timeline.length;
     }
 
     @Override
@@ -381,7 +481,7 @@ public class URLAnimatedImageMap extends URLImageMap {
     }
 
     @Override
-    public void save() throws Exception {
+    public synchronized void save() throws Exception {
         if (imageIndex < 0) {
             throw new IllegalStateException("ImageMap with index < 0 cannot be saved");
         }
@@ -397,6 +497,17 @@ public class URLAnimatedImageMap extends URLImageMap {
         json.addProperty("creator", creator.toString());
         json.addProperty("pausedAt", pausedAt);
         json.addProperty("tickOffset", tickOffset);
+        AnimationData animationData;
+        boolean colorsWritten;
+        synchronized (dataLock) {
+            animationData = this.animationData;
+            colorsWritten = colorsDirty || colorsFileName == null;
+        }
+        JsonArray timelineArray = new JsonArray();
+        for (int frameIndex : animationData.timeline) {
+            timelineArray.add(frameIndex);
+        }
+        json.add("timeline", timelineArray);
         JsonObject accessJson = new JsonObject();
         for (Map.Entry<UUID, ImageMapAccessPermissionType> entry : hasAccess.entrySet()) {
             accessJson.addProperty(entry.getKey().toString(), entry.getValue().name());
@@ -404,15 +515,17 @@ public class URLAnimatedImageMap extends URLImageMap {
         json.add("hasAccess", accessJson);
         json.addProperty("creationTime", creationTime);
         JsonArray mapDataJson = new JsonArray();
-        int u = 0;
         for (int i = 0; i < mapViews.size(); i++) {
             JsonObject dataJson = new JsonObject();
             dataJson.addProperty("mapid", mapIds.get(i));
-            JsonArray framesArray = new JsonArray();
-            for (FileLazyMappedBufferedImage image : cachedImages[i]) {
-                framesArray.add(u++ + ".png");
+            FileLazyMappedBufferedImage[] legacyImages = cachedImages[i];
+            if (legacyImages != null && !ImageFrame.backupLegacyImageFiles && Arrays.stream(legacyImages).allMatch(image -> image != null && image.getFile() != null)) {
+                JsonArray framesArray = new JsonArray();
+                for (FileLazyMappedBufferedImage image : legacyImages) {
+                    framesArray.add(image.getFile().getName());
+                }
+                dataJson.add("images", framesArray);
             }
-            dataJson.add("images", framesArray);
             JsonArray markerArray = new JsonArray();
             for (Map.Entry<String, MapCursor> entry : mapMarkers.get(i).entrySet()) {
                 MapCursor marker = entry.getValue();
@@ -430,16 +543,71 @@ public class URLAnimatedImageMap extends URLImageMap {
             mapDataJson.add(dataJson);
         }
         json.add("mapdata", mapDataJson);
-        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(new File(folder, "data.json").toPath()), StandardCharsets.UTF_8))) {
-            pw.println(GSON.toJson(json));
-            pw.flush();
+        String colorsFileName = this.colorsFileName;
+        if (colorsWritten) {
+            colorsFileName = PackedMapColorsFile.newFileName(folder);
+            File colorsFile = new File(folder, colorsFileName);
+            PackedMapColorsFile.write(colorsFile, animationData.frameStore.getPacked());
+            PackedAnimationFrameStore mappedFrameStore = ImageFrame.memoryMappedAnimations ? new PackedAnimationFrameStore(PackedMapColorsFile.open(colorsFile, true)) : null;
+            synchronized (dataLock) {
+                this.colorsFileName = colorsFileName;
+                if (this.animationData == animationData) {
+                    colorsDirty = false;
+                    if (mappedFrameStore != null) {
+                        this.animationData = animationData.withFrameStore(mappedFrameStore);
+                        closeFrameStore(animationData.frameStore);
+                        mappedFrameStore = null;
+                    }
+                }
+            }
+            closeFrameStore(mappedFrameStore);
         }
-        int i = 0;
-        for (FileLazyMappedBufferedImage[] images : cachedImages) {
-            for (FileLazyMappedBufferedImage image : images) {
-                image.setFile(new File(folder, i++ + ".png"));
+        json.addProperty("colors", colorsFileName);
+        writeData(folder, json);
+        manager.updateIndex(folder, json);
+        //also retries files a previous save could not delete
+        PackedMapColorsFile.deleteOtherColorsFiles(folder, colorsFileName);
+        if (ImageFrame.backupLegacyImageFiles && Arrays.stream(cachedImages).anyMatch(Objects::nonNull)) {
+            Arrays.fill(cachedImages, null);
+            PackedMapColorsFile.backupLegacyImageFiles(folder);
+        }
+    }
+
+    protected static class AnimationData {
+
+        protected static AnimationData create(PackedAnimationFrameStore frameStore, int[] timeline) {
+            int[][] fakeMapIds = new int[frameStore.getTiles()][];
+            Set<Integer> fakeMapIdsSet = new HashSet<>();
+            for (int i = 0; i < fakeMapIds.length; i++) {
+                int[] madIds = fakeMapIds[i] = new int[frameStore.getFrames(i)];
+                Map<Integer, Integer> distinctFrames = new HashMap<>();
+                for (int u = 0; u < madIds.length; u++) {
+                    madIds[u] = distinctFrames.computeIfAbsent(frameStore.getContentId(i, u), k -> {
+                        int mapId = ImageMapManager.getNextFakeMapId();
+                        fakeMapIdsSet.add(mapId);
+                        return mapId;
+                    });
+                }
             }
+            return new AnimationData(frameStore, timeline, fakeMapIds, fakeMapIdsSet);
         }
+
+        protected final PackedAnimationFrameStore frameStore;
+        protected final int[] timeline;
+        protected final int[][] fakeMapIds;
+        protected final Set<Integer> fakeMapIdsSet;
+
+        protected AnimationData(PackedAnimationFrameStore frameStore, int[] timeline, int[][] fakeMapIds, Set<Integer> fakeMapIdsSet) {
+            this.frameStore = frameStore;
+            this.timeline = timeline;
+            this.fakeMapIds = fakeMapIds;
+            this.fakeMapIdsSet = fakeMapIdsSet;
+        }
+
+        protected AnimationData withFrameStore(PackedAnimationFrameStore frameStore) {
+            return new AnimationData(frameStore, timeline, fakeMapIds, fakeMapIdsSet);
+        }
+
     }
 
     public static class URLAnimatedImageMapRenderer extends ImageMapRenderer {
@@ -455,7 +623,7 @@ public class URLAnimatedImageMap extends URLImageMap {
         public MutablePair<byte[], Collection<MapCursor>> renderMap(MapView mapView, int currentTick, Player player) {
             byte[] colors = parent.getRawAnimationColors(currentTick, index);
             Collection<MapCursor> cursors = parent.getMapMarkers().get(index).values();
-            return new MutablePair<>(colors, cursors);
+            return new MapRenderData(colors, cursors);
         }
 
         @Override
@@ -32,7 +32,6 @@ import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.map.MapCursor;
-import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 
@@ -40,16 +39,14 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -82,7 +79,7 @@ public class URLStaticImageMap extends URLImageMap {
                 throw new RuntimeException(e);
             }
         }
-        URLStaticImageMap map = new URLStaticImageMap(manager, -1, name, url, new FileLazyMappedBufferedImage[mapsCount], mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis());
+        URLStaticImageMap map = new URLStaticImageMap(manager, -1, name, url, new FileLazyMappedBufferedImage[mapsCount], null, mapViews, mapIds, markers, width, height, creator, Collections.emptyMap(), System.currentTimeMillis());
         return FutureUtils.callAsyncMethod(() -> {
             FutureUtils.callSyncMethod(() -> {
                 for (int i = 0; i < mapViews.size(); i++) {
@@ -128,7 +125,9 @@ public class URLStaticImageMap extends URLImageMap {
             int mapId = jsonObject.get("mapid").getAsInt();
             mapIds.add(mapId);
             mapViewsFuture.add(MapUtils.getMapOrCreateMissing(world, mapId));
-            cachedImages[i] = FileLazyMappedBufferedImage.fromFile(new File(folder, jsonObject.get("image").getAsString()));
+            if (jsonObject.has("image")) {
+                cachedImages[i] = FileLazyMappedBufferedImage.fromFile(new File(folder, jsonObject.get("image").getAsString()));
+            }
             Map<String, MapCursor> mapCursors = new ConcurrentHashMap<>();
             if (jsonObject.has("markers")) {
                 JsonArray markerArray = jsonObject.get("markers").getAsJsonArray();
@@ -151,7 +150,14 @@ public class URLStaticImageMap extends URLImageMap {
         for (Future<MapView> future : mapViewsFuture) {
             mapViews.add(future.get());
         }
-        URLStaticImageMap map = new URLStaticImageMap(manager, imageIndex, name, url, cachedImages, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime);
+        boolean lazy = ImageFrame.lazyMapData && json.has("colors");
+        byte[][] cachedColors = json.has("colors") && !lazy ? PackedMapColorsFile.readStatic(new File(folder, json.get("colors").getAsString())) : null;
+        URLStaticImageMap map = new URLStaticImageMap(manager, imageIndex, name, url, cachedImages, cachedColors, mapViews, mapIds, markers, width, height, creator, hasAccess, creationTime);
+        if (lazy) {
+            map.markDataUnloaded();
+        } else if (cachedColors == null) {
+            map.save();
+        }
         return FutureUtils.callSyncMethod(() -> {
             for (int u = 0; u < mapViews.size(); u++) {
                 MapView mapView = mapViews.get(u);
@@ -166,12 +172,17 @@ public class URLStaticImageMap extends URLImageMap {
 
     protected final FileLazyMappedBufferedImage[] cachedImages;
 
-    protected byte[][] cachedColors;
+    protected volatile byte[][] cachedColors;
+    protected boolean colorsDirty;
 
-    protected URLStaticImageMap(ImageMapManager manager, int imageIndex, String name, String url, FileLazyMappedBufferedImage[] cachedImages, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
+    protected URLStaticImageMap(ImageMapManager manager, int imageIndex, String name, String url, FileLazyMappedBufferedImage[] cachedImages, byte[][] cachedColors, List<MapView> mapViews, List<Integer> mapIds, List<Map<String, MapCursor>> mapMarkers, int width, int height, UUID creator, Map<UUID, ImageMapAccessPermissionType> hasAccess, long creationTime) {
         super(manager, imageIndex, name, url, mapViews, mapIds, mapMarkers, width, height, creator, hasAccess, creationTime);
         this.cachedImages = cachedImages;
-        cacheColors();
+        if (cachedColors == null) {
+            cacheColors();
+        } else {
+            this.cachedColors = cachedColors;
+        }
     }
 
     public void cacheColors() {
@@ -181,13 +192,32 @@ public class URLStaticImageMap extends URLImageMap {
         if (cachedImages[0] == null) {
             return;
         }
-        cachedColors = new byte[cachedImages.length][];
-        int i = 0;
-        for (FileLazyMappedBufferedImage image : cachedImages) {
-            cachedColors[i++] = MapPalette.imageToBytes(image.get());
+        try {
+            byte[][] colors = ImageFrame.imageProcessor.process(cachedImages.length, i -> ImageFrame.mapColorQuantizer.imageToBytes(cachedImages[i].get())).toArray(new byte[0][]);
+            updateData(() -> {
+                cachedColors = colors;
+                colorsDirty = true;
+            });
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
     }
 
+    @Override
+    protected boolean canUnloadData() {
+        return !colorsDirty && imageIndex >= 0;
+    }
+
+    @Override
+    protected void loadData() throws Exception {
+        cachedColors = PackedMapColorsFile.readStatic(new File(new File(manager.getDataFolder(), String.valueOf(imageIndex)), PackedMapColorsFile.FILE_NAME));
+    }
+
+    @Override
+    protected void unloadData() {
+        cachedColors = null;
+    }
+
     @Override
     public ImageMap deepClone(String name, UUID creator) throws Exception {
         URLStaticImageMap imageMap = create(manager, name, url, width, height, creator).get();
@@ -209,14 +239,12 @@ public class URLStaticImageMap extends URLImageMap {
         if (image == null) {
             throw new RuntimeException("Unable to read or download image, does this url directly links to an image? (" + url + ")");
         }
-        image = MapUtils.resize(image, width, height);
-        int i = 0;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                cachedImages[i++] = FileLazyMappedBufferedImage.fromImage(MapUtils.getSubImage(image, x, y));
-            }
-        }
-        cacheColors();
+        BufferedImage resized = MapUtils.resize(image, width, height);
+        byte[][] colors = ImageFrame.imageProcessor.process(width * height, i -> ImageFrame.mapColorQuantizer.imageToBytes(MapUtils.getSubImage(resized, i % width, i / width))).toArray(new byte[0][]);
+        updateData(() -> {
+            cachedColors = colors;
+            colorsDirty = true;
+        });
         Bukkit.getPluginManager().callEvent(new ImageMapUpdatedEvent(this));
         send(getViewers());
         if (save) {
@@ -225,7 +253,7 @@ public class URLStaticImageMap extends URLImageMap {
     }
 
     @Override
-    public void save() throws Exception {
+    public synchronized void save() throws Exception {
         if (imageIndex < 0) {
             throw new IllegalStateException("ImageMap with index < 0 cannot be saved");
         }
@@ -249,7 +277,10 @@ public class URLStaticImageMap extends URLImageMap {
         for (int i = 0; i < mapViews.size(); i++) {
             JsonObject dataJson = new JsonObject();
             dataJson.addProperty("mapid", mapIds.get(i));
-            dataJson.addProperty("image", i + ".png");
+            FileLazyMappedBufferedImage legacyImage = cachedImages[i];
+            if (legacyImage != null && legacyImage.getFile() != null && !ImageFrame.backupLegacyImageFiles) {
+                dataJson.addProperty("image", legacyImage.getFile().getName());
+            }
             JsonArray markerArray = new JsonArray();
             for (Map.Entry<String, MapCursor> entry : mapMarkers.get(i).entrySet()) {
                 MapCursor marker = entry.getValue();
@@ -267,12 +298,25 @@ public class URLStaticImageMap extends URLImageMap {
             mapDataJson.add(dataJson);
         }
         json.add("mapdata", mapDataJson);
-        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(new File(folder, "data.json").toPath()), StandardCharsets.UTF_8))) {
-            pw.println(GSON.toJson(json));
-            pw.flush();
+        json.addProperty("colors", PackedMapColorsFile.FILE_NAME);
+        byte[][] colors;
+        synchronized (dataLock) {
+            colors = colorsDirty ? cachedColors : null;
+        }
+        boolean colorsWritten = colors != null;
+        if (colorsWritten) {
+            PackedMapColorsFile.writeStatic(new File(folder, PackedMapColorsFile.FILE_NAME), colors);
+            synchronized (dataLock) {
+                if (cachedColors == colors) {
+                    colorsDirty = false;
+                }
+            }
         }
-        for (int i = 0; i < cachedImages.length; i++) {
-            cachedImages[i].setFile(new File(folder, i +".png"));
+        writeData(folder, json);
+        manager.updateIndex(folder, json);
+        if (ImageFrame.backupLegacyImageFiles && Arrays.stream(cachedImages).anyMatch(Objects::nonNull)) {
+            Arrays.fill(cachedImages, null);
+            PackedMapColorsFile.backupLegacyImageFiles(folder);
         }
     }
 
@@ -287,16 +331,16 @@ public class URLStaticImageMap extends URLImageMap {
 
         @Override
         public MutablePair<byte[], Collection<MapCursor>> renderMap(MapView mapView, Player player) {
+            byte[][] cachedColors = parent.cachedColors;
+            parent.requestDataLoad();
             byte[] colors;
-            if (parent.cachedColors != null && parent.cachedColors[index] != null) {
-                colors = parent.cachedColors[index];
-            } else if (parent.cachedImages[index] != null) {
-                colors = MapPalette.imageToBytes(parent.cachedImages[index].get());
+            if (cachedColors != null && cachedColors[index] != null) {
+                colors = cachedColors[index];
             } else {
                 colors = null;
             }
             Collection<MapCursor> cursors = parent.getMapMarkers().get(index).values();
-            return new MutablePair<>(colors, cursors);
+            return new MapRenderData(colors, cursors);
         }
     }
 
@@ -39,8 +39,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
@@ -62,119 +60,147 @@ public class GifReader {
         byte[] targetArray = buffer.toByteArray();
         CompletableFuture<List<ImageFrame>> future = new CompletableFuture<>();
         Scheduler.runTaskAsynchronously(com.loohp.imageframe.ImageFrame.plugin, () -> {
-            List<ThrowingSupplier<List<ImageFrame>>> tries = new ArrayList<>(3);
-            tries.add(() -> readGifMethod1(new ByteArrayInputStream(targetArray)));
-            tries.add(() -> readGifFallbackMethod(new ByteArrayInputStream(targetArray)));
-            Throwable firstThrowable = null;
-            for (ThrowingSupplier<List<ImageFrame>> task : tries) {
-                try {
-                    future.complete(task.get());
-                    return;
-                } catch (Throwable e) {
-                    if (firstThrowable == null) {
-                        firstThrowable = e;
-                    }
-                }
+            try {
+                List<ImageFrame> frames = new ArrayList<>();
+                readGif(() -> new ByteArrayInputStream(targetArray), frames::add);
+                future.complete(frames);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
             }
-            future.completeExceptionally(firstThrowable);
         });
         return future;
     }
 
+    public static int readGif(ThrowingSupplier<InputStream> source, ThrowingConsumer<ImageFrame> consumer) throws Exception {
+        int[] emitted = new int[1];
+        ThrowingConsumer<ImageFrame> countingConsumer = frame -> {
+            emitted[0]++;
+            consumer.accept(frame);
+        };
+        try (InputStream input = source.get()) {
+            return readGifMethod1(input, countingConsumer);
+        } catch (Throwable e) {
+            if (emitted[0] > 0) {
+                throw toException(e);
+            }
+            try (InputStream input = source.get()) {
+                return readGifFallbackMethod(input, countingConsumer);
+            } catch (Throwable fallbackThrowable) {
+                e.addSuppressed(fallbackThrowable);
+                throw toException(e);
+            }
+        }
+    }
 
-    private static List<ImageFrame> readGifMethod1(InputStream input) throws IOException {
-        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
-        ImageInputStream stream = ImageIO.createImageInputStream(input);
-        reader.setInput(stream);
+    private static Exception toException(Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return e instanceof Exception ? (Exception) e : new RuntimeException(e);
+    }
 
-        List<ImageFrame> frames = new LinkedList<>();
+    private static int readGifMethod1(InputStream input, ThrowingConsumer<ImageFrame> consumer) throws Throwable {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            reader.setInput(stream, true, false);
 
-        int width = -1;
-        int height = -1;
+            int width = -1;
+            int height = -1;
 
-        IIOMetadata metadata = reader.getStreamMetadata();
-        if (metadata != null) {
-            IIOMetadataNode globalRoot = (IIOMetadataNode) metadata.getAsTree(metadata.getNativeMetadataFormatName());
+            IIOMetadata metadata = reader.getStreamMetadata();
+            if (metadata != null) {
+                IIOMetadataNode globalRoot = (IIOMetadataNode) metadata.getAsTree(metadata.getNativeMetadataFormatName());
 
-            NodeList globalScreenDescriptor = globalRoot.getElementsByTagName("LogicalScreenDescriptor");
+                NodeList globalScreenDescriptor = globalRoot.getElementsByTagName("LogicalScreenDescriptor");
 
-            if (globalScreenDescriptor != null && globalScreenDescriptor.getLength() > 0) {
-                IIOMetadataNode screenDescriptor = (IIOMetadataNode) globalScreenDescriptor.item(0);
+                if (globalScreenDescriptor != null && globalScreenDescriptor.getLength() > 0) {
+                    IIOMetadataNode screenDescriptor = (IIOMetadataNode) globalScreenDescriptor.item(0);
 
-                if (screenDescriptor != null) {
-                    width = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenWidth"));
-                    height = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenHeight"));
+                    if (screenDescriptor != null) {
+                        width = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenWidth"));
+                        height = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenHeight"));
+                    }
                 }
             }
-        }
 
-        BufferedImage master = null;
-        Graphics2D masterGraphics = null;
+            BufferedImage master = null;
+            Graphics2D masterGraphics = null;
+            BufferedImage lastNonRestoring = null;
 
-        for (int frameIndex = 0; ; frameIndex++) {
-            BufferedImage image;
-            try {
-                image = reader.read(frameIndex);
-            } catch (IndexOutOfBoundsException io) {
-                break;
-            }
+            int frameIndex;
+            for (frameIndex = 0; ; frameIndex++) {
+                BufferedImage image;
+                try {
+                    image = reader.read(frameIndex);
+                } catch (IndexOutOfBoundsException io) {
+                    break;
+                }
 
-            if (width == -1 || height == -1) {
-                width = image.getWidth();
-                height = image.getHeight();
-            }
+                if (width == -1 || height == -1) {
+                    width = image.getWidth();
+                    height = image.getHeight();
+                }
 
-            IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(frameIndex).getAsTree("javax_imageio_gif_image_1.0");
-            IIOMetadataNode gce = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0);
-            int delay = Integer.parseInt(gce.getAttribute("delayTime")) * 10;
-            String disposal = gce.getAttribute("disposalMethod");
-
-            int x = 0;
-            int y = 0;
-
-            if (master == null) {
-                master = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-                masterGraphics = master.createGraphics();
-                masterGraphics.setBackground(new Color(0, 0, 0, 0));
-            } else {
-                NodeList children = root.getChildNodes();
-                for (int nodeIndex = 0; nodeIndex < children.getLength(); nodeIndex++) {
-                    Node nodeItem = children.item(nodeIndex);
-                    if (nodeItem.getNodeName().equals("ImageDescriptor")) {
-                        NamedNodeMap map = nodeItem.getAttributes();
-                        x = Integer.parseInt(map.getNamedItem("imageLeftPosition").getNodeValue());
-                        y = Integer.parseInt(map.getNamedItem("imageTopPosition").getNodeValue());
+                IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(frameIndex).getAsTree("javax_imageio_gif_image_1.0");
+                IIOMetadataNode gce = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0);
+                int delay = Integer.parseInt(gce.getAttribute("delayTime")) * 10;
+                String disposal = gce.getAttribute("disposalMethod");
+
+                int x = 0;
+                int y = 0;
+
+                if (master == null) {
+                    master = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    masterGraphics = master.createGraphics();
+                    masterGraphics.setBackground(new Color(0, 0, 0, 0));
+                } else {
+                    NodeList children = root.getChildNodes();
+                    for (int nodeIndex = 0; nodeIndex < children.getLength(); nodeIndex++) {
+                        Node nodeItem = children.item(nodeIndex);
+                        if (nodeItem.getNodeName().equals("ImageDescriptor")) {
+                            NamedNodeMap map = nodeItem.getAttributes();
+                            x = Integer.parseInt(map.getNamedItem("imageLeftPosition").getNodeValue());
+                            y = Integer.parseInt(map.getNamedItem("imageTopPosition").getNodeValue());
+                        }
                     }
                 }
-            }
-            masterGraphics.drawImage(image, x, y, null);
+                masterGraphics.drawImage(image, x, y, null);
 
-            BufferedImage copy = new BufferedImage(master.getColorModel(), master.copyData(null), master.isAlphaPremultiplied(), null);
-            frames.add(new ImageFrame(copy, delay, disposal));
+                BufferedImage copy = new BufferedImage(master.getColorModel(), master.copyData(null), master.isAlphaPremultiplied(), null);
+                consumer.accept(new ImageFrame(copy, delay, disposal));
 
-            if (disposal.equals("restoreToPrevious")) {
-                BufferedImage from = null;
-                for (int i = frameIndex - 1; i >= 0; i--) {
-                    if (!frames.get(i).getDisposal().equals("restoreToPrevious") || frameIndex == 0) {
-                        from = frames.get(i).getImage();
-                        break;
+                if (disposal.equals("restoreToPrevious")) {
+                    masterGraphics.dispose();
+                    if (lastNonRestoring == null) {
+                        master = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    } else {
+                        master = new BufferedImage(lastNonRestoring.getColorModel(), lastNonRestoring.copyData(null), lastNonRestoring.isAlphaPremultiplied(), null);
+                    }
+                    masterGraphics = master.createGraphics();
+                    masterGraphics.setBackground(new Color(0, 0, 0, 0));
+                } else {
+                    lastNonRestoring = copy;
+                    if (disposal.equals("restoreToBackgroundColor")) {
+                        masterGraphics.clearRect(x, y, image.getWidth(), image.getHeight());
                     }
                 }
-
-                master = new BufferedImage(from.getColorModel(), from.copyData(null), from.isAlphaPremultiplied(), null);
-                masterGraphics = master.createGraphics();
-                masterGraphics.setBackground(new Color(0, 0, 0, 0));
-            } else if (disposal.equals("restoreToBackgroundColor")) {
-                masterGraphics.clearRect(x, y, image.getWidth(), image.getHeight());
             }
+            if (masterGraphics != null) {
+                masterGraphics.dispose();
+            }
+            return frameIndex;
+        } finally {
+            reader.dispose();
         }
-        reader.dispose();
-
-        return frames;
     }
 
-    private static List<ImageFrame> readGifFallbackMethod(InputStream input) throws IOException {
-        return Collections.singletonList(new ImageFrame(ImageIO.read(input)));
+    private static int readGifFallbackMethod(InputStream input, ThrowingConsumer<ImageFrame> consumer) throws Throwable {
+        BufferedImage image = ImageIO.read(input);
+        if (image == null) {
+            throw new IOException("Unable to read image");
+        }
+        consumer.accept(new ImageFrame(image));
+        return 1;
     }
 
     public static int getFrameAt(Collection<ImageFrame> frames, int ms) {
@@ -197,6 +223,44 @@ public class GifReader {
 
     }
 
+    @FunctionalInterface
+    public interface ThrowingConsumer<T> {
+
+        void accept(T t) throws Throwable;
+
+    }
+
+    public static class Timeline {
+
+        public static final int TICK_INTERVAL = 50;
+
+        private int frameIndex;
+        private int currentTime;
+        private int nextTickTime;
+
+        public Timeline() {
+            this.frameIndex = -1;
+            this.currentTime = 0;
+            this.nextTickTime = 0;
+        }
+
+        public int next(int delay) {
+            frameIndex++;
+            currentTime += delay;
+            int ticks = 0;
+            while (nextTickTime <= currentTime) {
+                nextTickTime += TICK_INTERVAL;
+                ticks++;
+            }
+            return ticks;
+        }
+
+        public int getFrameIndex() {
+            return frameIndex;
+        }
+
+    }
+
     public static class ImageFrame {
 
         private final int delay;
@@ -25,8 +25,12 @@ import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.wrappers.WrappedChatComponent;
 import com.loohp.imageframe.ImageFrame;
+import com.loohp.imageframe.hooks.viaversion.ViaHook;
 import com.loohp.imageframe.objectholders.ImageMap;
+import com.loohp.imageframe.objectholders.MapClientStateManager;
+import com.loohp.imageframe.objectholders.MapPacketCache;
 import com.loohp.imageframe.objectholders.MapPacketSentCallback;
+import com.loohp.imageframe.objectholders.MapRenderData;
 import com.loohp.imageframe.objectholders.MutablePair;
 import com.loohp.imageframe.objectholders.Point2D;
 import org.bukkit.Bukkit;
@@ -42,8 +46,10 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.MapMeta;
+import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapCursor;
 import org.bukkit.map.MapCursorCollection;
+import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.map.MapView;
 import org.bukkit.util.BoundingBox;
@@ -53,16 +59,21 @@ import org.bukkit.util.Vector;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -70,13 +81,18 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 public class MapUtils {
 
     public static final int MAP_WIDTH = 128;
     public static final int COLOR_ARRAY_LENGTH = 16384;
+    public static final int PARTIAL_UPDATE_MAX_AREA = COLOR_ARRAY_LENGTH * 3 / 4;
+    public static final int MAX_BUNDLE_SIZE = 4096;
     public static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
     public static final String GIF_CONTENT_TYPE = "image/gif";
+    public static final String IMAGE_FRAME_PACKET_META = "ImageFrameMapPacket";
     public static final List<BlockFace> CARTESIAN_BLOCK_FACES = Collections.unmodifiableList(Arrays.asList(BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN));
 
     private static Class<?> craftMapViewClass;
@@ -93,11 +109,14 @@ public class MapUtils {
     private static Constructor<?> nmsMapIconConstructor;
     private static Class<?> nmsWorldMapBClass;
     private static Constructor<?> nmsWorldMapBClassConstructor;
+    private static Field nmsWorldMapBClassColorsField;
     private static Class<?> craftPlayerClass;
     private static Method craftMapViewRenderMethod;
     private static Class<?> craftRenderDataClass;
     private static Field craftRenderDataBufferField;
     private static Field craftRenderDataCursorsField;
+    private static Class<?> craftMapCanvasClass;
+    private static Field craftMapCanvasBufferField;
     private static Class<?> craftWorldClass;
     private static Method craftWorldGetHandleMethod;
     private static Method nmsWorldMapCreateFreshMethod;
@@ -107,6 +126,7 @@ public class MapUtils {
     private static Method nmsWorldServerDimensionMethod;
 
     private static final ConcurrentHashMap<Integer, CompletableFuture<MapView>> mapViewCache = new ConcurrentHashMap<>();
+    private static final MapPacketCache mapPacketCache = new MapPacketCache(0);
 
     static {
         try {
@@ -136,6 +156,9 @@ public class MapUtils {
                 //noinspection OptionalGetWithoutIsPresent
                 nmsWorldMapBClass = Arrays.stream(nmsWorldMapClass.getClasses()).filter(each -> each.getName().endsWith("$b")).findFirst().get();
                 nmsWorldMapBClassConstructor = nmsWorldMapBClass.getConstructor(int.class, int.class, int.class, int.class, byte[].class);
+                //noinspection OptionalGetWithoutIsPresent
+                nmsWorldMapBClassColorsField = Arrays.stream(nmsWorldMapBClass.getDeclaredFields()).filter(each -> each.getType().equals(byte[].class)).findFirst().get();
+                nmsWorldMapBClassColorsField.setAccessible(true);
             }
             craftPlayerClass = NMSUtils.getNMSClass("org.bukkit.craftbukkit.%s.entity.CraftPlayer");
             craftMapViewRenderMethod = craftMapViewClass.getMethod("render", craftPlayerClass);
@@ -154,11 +177,86 @@ public class MapUtils {
             nmsItemWorldMapClass = NMSUtils.getNMSClass("net.minecraft.server.%s.ItemWorldMap", "net.minecraft.world.item.ItemWorldMap");
             nmsItemWorldMapMakeKeyMethod = nmsItemWorldMapClass.getMethod("a", int.class);
             nmsWorldServerDimensionMethod = Arrays.stream(craftWorldGetHandleMethod.getReturnType().getMethods()).filter(e -> e.getParameterCount() == 0 && e.getReturnType().equals(nmsWorldMapCreateFreshMethod.getParameterTypes()[5])).findFirst().get();
+
+            craftMapCanvasClass = NMSUtils.getNMSClass("org.bukkit.craftbukkit.%s.map.CraftMapCanvas");
+            craftMapCanvasBufferField = craftMapCanvasClass.getDeclaredField("buffer");
         } catch (ReflectiveOperationException e) {
             e.printStackTrace();
         }
     }
 
+    private static final MethodHandle CRAFT_MAP_VIEW_WORLD_MAP_GETTER = unreflectGetter(craftMapViewWorldMapField);
+    private static final MethodHandle NMS_WORLD_MAP_HUMANS_GETTER = unreflectGetter(nmsWorldMapHumansField);
+    private static final MethodHandle NMS_WORLD_MAP_COLORS_GETTER = unreflectGetter(nmsWorldColorsField);
+    private static final MethodHandle NMS_WORLD_MAP_COLORS_SETTER = unreflectSetter(nmsWorldColorsField);
+    private static final MethodHandle NMS_ENTITY_HUMAN_GET_BUKKIT_ENTITY = unreflect(nmsEntityHumanGetBukkitEntityMethod);
+    private static final MethodHandle NMS_MAP_ICON_TYPE_RENDER_ON_FRAME_GETTER = unreflectGetter(nmsMapIconTypeRenderOnFrameField);
+    private static final MethodHandle NMS_MAP_ICON_CONSTRUCTOR = unreflectConstructor(nmsMapIconConstructor);
+    private static final MethodHandle NMS_WORLD_MAP_B_CONSTRUCTOR = unreflectConstructor(nmsWorldMapBClassConstructor);
+    private static final MethodHandle NMS_WORLD_MAP_B_COLORS_GETTER = unreflectGetter(nmsWorldMapBClassColorsField);
+    private static final MethodHandle CRAFT_MAP_VIEW_RENDER = unreflect(craftMapViewRenderMethod);
+    private static final MethodHandle CRAFT_RENDER_DATA_BUFFER_GETTER = unreflectGetter(craftRenderDataBufferField);
+    private static final MethodHandle CRAFT_RENDER_DATA_CURSORS_GETTER = unreflectGetter(craftRenderDataCursorsField);
+    private static final MethodHandle CRAFT_MAP_CANVAS_BUFFER_GETTER = unreflectGetter(craftMapCanvasBufferField);
+
+    private static MethodHandle unreflectGetter(Field field) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field).asType(MethodType.genericMethodType(1));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflectSetter(Field field) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        if (method == null) {
+            return null;
+        }
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflectConstructor(Constructor<?> constructor) {
+        if (constructor == null) {
+            return null;
+        }
+        try {
+            constructor.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+            return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static void setMapPacketCacheSize(int size) {
+        mapPacketCache.setMaxSize(size);
+    }
+
     public static World getMainWorld() {
         return Bukkit.getWorlds().get(0);
     }
@@ -192,6 +290,70 @@ public class MapUtils {
     }
 
     public static void sendImageMap(int mapId, MapView mapView, int currentTick, Collection<? extends Player> players, MapPacketSentCallback completionCallback, boolean now) {
+        createImageMapPackets(mapId, mapView, currentTick, players, completionCallback, !now, (player, packet) -> {
+            if (now) {
+                ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+                if (completionCallback != null) {
+                    completionCallback.accept(player, mapId, true);
+                }
+            } else {
+                ImageFrame.rateLimitedPacketSendingManager.queue(player, packet, mapId, mapView.getId(), completionCallback == null ? null : (p, r) -> completionCallback.accept(p, mapId, r));
+            }
+        });
+    }
+
+    public static void sendImageMaps(List<MapView> mapViews, Collection<? extends Player> players) {
+        if (!ImageFrame.bundleMapPackets || mapViews.size() <= 1 || !ImageFrame.version.isNewerOrEqualTo(MCVersion.V1_19_4)) {
+            for (MapView mapView : mapViews) {
+                sendImageMap(mapView, players);
+            }
+            return;
+        }
+        //bundles are queued after every map is diffed, so hold the client state locks until then, taken in a fixed order
+        List<ReentrantLock> locks = new ArrayList<>();
+        MapClientStateManager clientStateManager = ImageFrame.mapClientStateManager;
+        if (clientStateManager != null && (ImageFrame.partialMapUpdates || ImageFrame.suppressRedundantMapPackets)) {
+            players.stream().sorted(Comparator.comparing(Player::getUniqueId)).forEach(player -> {
+                ReentrantLock lock = clientStateManager.getLock(player);
+                lock.lock();
+                locks.add(lock);
+            });
+        }
+        try {
+            Map<Player, List<PacketContainer>> playerPackets = new LinkedHashMap<>();
+            for (MapView mapView : mapViews) {
+                int mapId = mapView.getId();
+                createImageMapPackets(mapId, mapView, -1, players, null, true, (player, packet) -> {
+                    if (ImageFrame.viaHook && !ViaHook.isPlayerBundleSupported(player)) {
+                        ImageFrame.rateLimitedPacketSendingManager.queue(player, packet, mapId, mapId, null);
+                    } else {
+                        playerPackets.computeIfAbsent(player, k -> new ArrayList<>()).add(packet);
+                    }
+                });
+            }
+            for (Map.Entry<Player, List<PacketContainer>> entry : playerPackets.entrySet()) {
+                Player player = entry.getKey();
+                List<PacketContainer> packets = entry.getValue();
+                if (packets.size() == 1) {
+                    PacketContainer packet = packets.get(0);
+                    int mapId = packet.getIntegers().read(0);
+                    ImageFrame.rateLimitedPacketSendingManager.queue(player, packet, mapId, mapId, null);
+                } else {
+                    for (int i = 0; i < packets.size(); i += MAX_BUNDLE_SIZE) {
+                        PacketContainer bundle = new PacketContainer(PacketType.Play.Server.BUNDLE);
+                        bundle.getPacketBundles().write(0, packets.subList(i, Math.min(packets.size(), i + MAX_BUNDLE_SIZE)));
+                        ImageFrame.rateLimitedPacketSendingManager.queue(player, bundle, null);
+                    }
+                }
+            }
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void createImageMapPackets(int mapId, MapView mapView, int currentTick, Collection<? extends Player> players, MapPacketSentCallback completionCallback, boolean queued, BiConsumer<Player, PacketContainer> packetConsumer) {
         List<MapRenderer> renderers = mapView.getRenderers();
         if (renderers.isEmpty()) {
             throw new IllegalArgumentException("mapView is not from an image map");
@@ -200,73 +362,300 @@ public class MapUtils {
         if (!optMapRenderer.isPresent()) {
             throw new IllegalArgumentException("mapView is not from an image map");
         }
-        ImageMap.ImageMapRenderer imageMapManager = (ImageMap.ImageMapRenderer) optMapRenderer.get();
+        ImageMap.ImageMapRenderer imageMapRenderer = (ImageMap.ImageMapRenderer) optMapRenderer.get();
+        ImageMap imageMap = imageMapRenderer.getImageMap();
+        int tick = currentTick < 0 && imageMap.requiresAnimationService() ? imageMap.getCurrentPositionInSequence() : currentTick;
+        long contentVersion = imageMap.getContentVersion();
+        boolean cacheable = imageMapRenderer.isPacketCacheable();
+        MapPacketCache.CachedMapPacket sharedPacket = cacheable ? mapPacketCache.get(mapId, tick, contentVersion) : null;
+        MapClientStateManager clientStateManager = ImageFrame.mapClientStateManager;
+        boolean trackClientState = clientStateManager != null && (ImageFrame.partialMapUpdates || ImageFrame.suppressRedundantMapPackets);
+        //immediate sends overtake the queue, so nothing can be diffed against them
+        boolean diffClientState = trackClientState && queued;
+        Map<byte[], PacketContainer> patchPackets = trackClientState ? new IdentityHashMap<>() : null;
+        Map<byte[], Long> colorsHashes = trackClientState ? new IdentityHashMap<>() : null;
+        boolean cursorsHashed = false;
+        Collection<MapCursor> hashedCursors = null;
+        int cursorsHash = 0;
+        boolean shareRenderData = cacheable && !imageMap.getManager().hasPlayerDependentRenderEventListeners();
+        MutablePair<byte[], Collection<MapCursor>> sharedRenderData = null;
+        boolean sharedAltered = false;
         for (Player player : players) {
             try {
-                MutablePair<byte[], Collection<MapCursor>> renderData = currentTick < 0 ? imageMapManager.renderPacketData(mapView, player) : imageMapManager.renderPacketData(mapView, currentTick, player);
+                MutablePair<byte[], Collection<MapCursor>> renderData;
+                boolean altered;
+                if (sharedRenderData == null) {
+                    renderData = tick < 0 ? imageMapRenderer.renderMap(mapView, player) : imageMapRenderer.renderMap(mapView, tick, player);
+                    altered = imageMapRenderer.applyRenderEventListeners(mapView, player, renderData);
+                    MapRenderData.detach(renderData);
+                    if (shareRenderData) {
+                        sharedRenderData = renderData;
+                        sharedAltered = altered;
+                    }
+                } else {
+                    renderData = sharedRenderData;
+                    altered = sharedAltered;
+                }
                 byte[] colors = renderData.getFirst();
                 Collection<MapCursor> cursors = renderData.getSecond();
-
-                PacketContainer packet = ProtocolLibrary.getProtocolManager().createPacket(PacketType.Play.Server.MAP);
-                if (ImageFrame.version.isNewerOrEqualTo(MCVersion.V1_17)) {
-                    packet.getIntegers().write(0, mapId);
-                    packet.getBytes().write(0, (byte) 0);
-                    packet.getBooleans().write(0, false);
-                    if (cursors == null) {
-                        packet.getModifier().write(3, Collections.emptyList());
-                    } else {
-                        List<Object> mapIcons = new ArrayList<>();
-                        for (MapCursor mapCursor : cursors) {
-                            mapIcons.add(toNMSMapIcon(mapCursor));
+                ReentrantLock lock = trackClientState ? clientStateManager.getLock(player) : null;
+                if (lock != null) {
+                    lock.lock();
+                }
+                try {
+                    PacketContainer packet = null;
+                    if (cacheable && !altered) {
+                        if (!cursorsHashed || hashedCursors != cursors) {
+                            cursorsHashed = true;
+                            hashedCursors = cursors;
+                            cursorsHash = MapClientStateManager.hashCursors(cursors);
                         }
-                        packet.getModifier().write(3, mapIcons);
-                    }
-                    if (colors == null) {
-                        packet.getModifier().write(4, null);
-                    } else {
-                        packet.getModifier().write(4, nmsWorldMapBClassConstructor.newInstance(0, 0, 128, 128, colors));
-                    }
-                } else {
-                    packet.getIntegers().write(0, mapId);
-                    packet.getBytes().write(0, (byte) 0);
-                    packet.getBooleans().write(0, false);
-                    packet.getBooleans().write(1, false);
-                    if (cursors == null) {
-                        packet.getModifier().write(4, Array.newInstance(nmsMapIconClass, 0));
-                    } else {
-                        Object mapIcons = Array.newInstance(nmsMapIconClass, cursors.size());
-                        int i = 0;
-                        for (MapCursor mapCursor : cursors) {
-                            Array.set(mapIcons, i++, toNMSMapIcon(mapCursor));
+                        MapClientStateManager.ClientMapState state = null;
+                        if (diffClientState) {
+                            state = clientStateManager.getState(player, mapId);
+                            if (state != null) {
+                                if (ImageFrame.suppressRedundantMapPackets && state.getCursorsHash() == cursorsHash && (colors == null || state.getColors() == colors || state.getColorsHash() == getColorsHash(colorsHashes, colors))) {
+                                    if (completionCallback != null) {
+                                        completionCallback.accept(player, mapId, true);
+                                    }
+                                    continue;
+                                }
+                                if (colors != null && ImageFrame.partialMapUpdates) {
+                                    byte[] lastSentColors = state.getColors();
+                                    if (patchPackets.containsKey(lastSentColors)) {
+                                        packet = patchPackets.get(lastSentColors);
+                                    } else {
+                                        packet = createMapPatchPacket(mapId, lastSentColors, colors, cursors);
+                                        patchPackets.put(lastSentColors, packet);
+                                    }
+                                    if (packet != null) {
+                                        clientStateManager.setState(player, mapId, new MapClientStateManager.ClientMapState(colors, getColorsHash(colorsHashes, colors), cursorsHash));
+                                    }
+                                }
+                            }
+                        }
+                        if (packet == null) {
+                            if (sharedPacket == null) {
+                                sharedPacket = new MapPacketCache.CachedMapPacket(createMapPacket(mapId, colors, cursors), colors, cursorsHash);
+                                mapPacketCache.put(mapId, tick, contentVersion, sharedPacket);
+                            }
+                            packet = sharedPacket.getPacket();
+                            if (diffClientState) {
+                                //record what the cached packet carries, which may predate this render
+                                byte[] sentColors = sharedPacket.getColors();
+                                if (sentColors != null) {
+                                    clientStateManager.setState(player, mapId, new MapClientStateManager.ClientMapState(sentColors, getColorsHash(colorsHashes, sentColors), sharedPacket.getCursorsHash()));
+                                } else if (state != null) {
+                                    clientStateManager.setState(player, mapId, new MapClientStateManager.ClientMapState(state.getColors(), state.getColorsHash(), sharedPacket.getCursorsHash()));
+                                }
+                            }
                         }
-                        packet.getModifier().write(4, mapIcons);
-                    }
-                    packet.getIntegers().write(1, 0);
-                    packet.getIntegers().write(2, 0);
-                    if (colors == null) {
-                        packet.getIntegers().write(3, 0);
-                        packet.getIntegers().write(4, 0);
-                        packet.getByteArrays().write(0, EMPTY_BYTE_ARRAY);
                     } else {
-                        packet.getIntegers().write(3, 128);
-                        packet.getIntegers().write(4, 128);
-                        packet.getByteArrays().write(0, colors);
+                        packet = createMapPacket(mapId, colors, cursors);
                     }
-                }
-                if (now) {
-                    ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
-                    if (completionCallback != null) {
-                        completionCallback.accept(player, mapId, true);
+                    if (trackClientState && (!queued || !cacheable || altered)) {
+                        clientStateManager.invalidate(player, mapId);
+                    }
+                    packetConsumer.accept(player, packet);
+                } finally {
+                    if (lock != null) {
+                        lock.unlock();
                     }
-                } else {
-                    ImageFrame.rateLimitedPacketSendingManager.queue(player, packet, completionCallback == null ? null : (p, r) -> completionCallback.accept(p, mapId, r));
                 }
-            } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
+            } catch (Throwable e) {
                 e.printStackTrace();
             }
         }
     }
 
+    private static long getColorsHash(Map<byte[], Long> colorsHashes, byte[] colors) {
+        Long colorsHash = colorsHashes.get(colors);
+        if (colorsHash == null) {
+            colorsHashes.put(colors, colorsHash = MapClientStateManager.hashColors(colors));
+        }
+        return colorsHash;
+    }
+
+    private static PacketContainer createMapPacket(int mapId, byte[] colors, Collection<MapCursor> cursors) throws Throwable {
+        if (colors == null) {
+            return createMapPacket(mapId, 0, 0, 0, 0, null, cursors);
+        }
+        return createMapPacket(mapId, 0, 0, MAP_WIDTH, MAP_WIDTH, colors, cursors);
+    }
+
+    private static PacketContainer createMapPatchPacket(int mapId, byte[] previousColors, byte[] colors, Collection<MapCursor> cursors) throws Throwable {
+        int[] area = previousColors == colors ? null : getChangedArea(previousColors, colors);
+        if (area == null) {
+            return createMapPacket(mapId, 0, 0, 0, 0, null, cursors);
+        }
+        int minX = area[0];
+        int minY = area[1];
+        int width = area[2] - minX + 1;
+        int height = area[3] - minY + 1;
+        if (width * height > PARTIAL_UPDATE_MAX_AREA) {
+            return null;
+        }
+        byte[] patch = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(colors, (minY + y) * MAP_WIDTH + minX, patch, y * width, width);
+        }
+        return createMapPacket(mapId, minX, minY, width, height, patch, cursors);
+    }
+
+    public static int[] getChangedArea(byte[] previousColors, byte[] colors) {
+        int minX = MAP_WIDTH;
+        int minY = MAP_WIDTH;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < MAP_WIDTH; y++) {
+            int row = y * MAP_WIDTH;
+            int x = 0;
+            while (x < MAP_WIDTH && previousColors[row + x] == colors[row + x]) {
+                x++;
+            }
+            if (x == MAP_WIDTH) {
+                continue;
+            }
+            int lastX = MAP_WIDTH - 1;
+            while (previousColors[row + lastX] == colors[row + lastX]) {
+                lastX--;
+            }
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, lastX);
+            if (minY > y) {
+                minY = y;
+            }
+            maxY = y;
+        }
+        return maxY < 0 ? null : new int[] {minX, minY, maxX, maxY};
+    }
+
+    public static void writeCanvas(MapCanvas canvas, byte[] colors) {
+        byte[] buffer = getCanvasBuffer(canvas);
+        if (buffer == null || buffer.length != COLOR_ARRAY_LENGTH || colors.length != COLOR_ARRAY_LENGTH) {
+            for (int y = 0, i = 0; y < MAP_WIDTH; y++) {
+                for (int x = 0; x < MAP_WIDTH; x++, i++) {
+                    canvas.setPixel(x, y, colors[i]);
+                }
+            }
+            return;
+        }
+        int[] area = getChangedArea(buffer, colors);
+        if (area == null) {
+            return;
+        }
+        int minX = area[0];
+        int minY = area[1];
+        int maxX = area[2];
+        int maxY = area[3];
+        int width = maxX - minX + 1;
+        for (int y = minY; y <= maxY; y++) {
+            int offset = y * MAP_WIDTH + minX;
+            System.arraycopy(colors, offset, buffer, offset, width);
+        }
+        //let the canvas flag the changed area as dirty through its two corners
+        int minIndex = minY * MAP_WIDTH + minX;
+        buffer[minIndex] = (byte) ~colors[minIndex];
+        canvas.setPixel(minX, minY, colors[minIndex]);
+        int maxIndex = maxY * MAP_WIDTH + maxX;
+        buffer[maxIndex] = (byte) ~colors[maxIndex];
+        canvas.setPixel(maxX, maxY, colors[maxIndex]);
+    }
+
+    private static byte[] getCanvasBuffer(MapCanvas canvas) {
+        if (CRAFT_MAP_CANVAS_BUFFER_GETTER == null || !craftMapCanvasClass.isInstance(canvas)) {
+            return null;
+        }
+        try {
+            return (byte[]) (Object) CRAFT_MAP_CANVAS_BUFFER_GETTER.invokeExact((Object) canvas);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static PacketContainer createMapPacket(int mapId, int x, int y, int width, int height, byte[] colors, Collection<MapCursor> cursors) throws Throwable {
+        PacketContainer packet = ProtocolLibrary.getProtocolManager().createPacket(PacketType.Play.Server.MAP);
+        if (ImageFrame.version.isNewerOrEqualTo(MCVersion.V1_17)) {
+            packet.getIntegers().write(0, mapId);
+            packet.getBytes().write(0, (byte) 0);
+            packet.getBooleans().write(0, false);
+            if (cursors == null) {
+                packet.getModifier().write(3, Collections.emptyList());
+            } else {
+                List<Object> mapIcons = new ArrayList<>();
+                for (MapCursor mapCursor : cursors) {
+                    mapIcons.add(toNMSMapIcon(mapCursor));
+                }
+                packet.getModifier().write(3, mapIcons);
+            }
+            if (colors == null) {
+                packet.getModifier().write(4, null);
+            } else {
+                packet.getModifier().write(4, (Object) NMS_WORLD_MAP_B_CONSTRUCTOR.invokeExact((Object) x, (Object) y, (Object) width, (Object) height, (Object) colors));
+            }
+        } else {
+            packet.getIntegers().write(0, mapId);
+            packet.getBytes().write(0, (byte) 0);
+            packet.getBooleans().write(0, false);
+            packet.getBooleans().write(1, false);
+            if (cursors == null) {
+                packet.getModifier().write(4, Array.newInstance(nmsMapIconClass, 0));
+            } else {
+                Object mapIcons = Array.newInstance(nmsMapIconClass, cursors.size());
+                int i = 0;
+                for (MapCursor mapCursor : cursors) {
+                    Array.set(mapIcons, i++, toNMSMapIcon(mapCursor));
+                }
+                packet.getModifier().write(4, mapIcons);
+            }
+            packet.getIntegers().write(1, x);
+            packet.getIntegers().write(2, y);
+            if (colors == null) {
+                packet.getIntegers().write(3, 0);
+                packet.getIntegers().write(4, 0);
+                packet.getByteArrays().write(0, EMPTY_BYTE_ARRAY);
+            } else {
+                packet.getIntegers().write(3, width);
+                packet.getIntegers().write(4, height);
+                packet.getByteArrays().write(0, colors);
+            }
+        }
+        packet.setMeta(IMAGE_FRAME_PACKET_META, true);
+        return packet;
+    }
+
+    public static boolean isImageFramePacket(PacketContainer packet) {
+        return packet.getMeta(IMAGE_FRAME_PACKET_META).isPresent();
+    }
+
+    public static int estimateMapPacketSize(PacketContainer packet) {
+        return 16 + getMapPacketCursorCount(packet) * 8 + getMapPacketColorsLength(packet);
+    }
+
+    public static int getMapPacketCursorCount(PacketContainer packet) {
+        if (ImageFrame.version.isNewerOrEqualTo(MCVersion.V1_17)) {
+            Object cursors = packet.getModifier().read(3);
+            return cursors instanceof Collection ? ((Collection<?>) cursors).size() : 0;
+        } else {
+            Object cursors = packet.getModifier().read(4);
+            return cursors == null ? 0 : Array.getLength(cursors);
+        }
+    }
+
+    public static int getMapPacketColorsLength(PacketContainer packet) {
+        try {
+            if (ImageFrame.version.isNewerOrEqualTo(MCVersion.V1_17)) {
+                Object patch = packet.getModifier().read(4);
+                return patch == null ? 0 : ((byte[]) (Object) NMS_WORLD_MAP_B_COLORS_GETTER.invokeExact(patch)).length;
+            } else {
+                byte[] colors = packet.getByteArrays().read(0);
+                return colors == null ? 0 : colors.length;
+            }
+        } catch (Throwable e) {
+            return COLOR_ARRAY_LENGTH;
+        }
+    }
+
     public static BufferedImage resize(BufferedImage source, int width, int height) {
         BufferedImage image = new BufferedImage(width * MAP_WIDTH, height * MAP_WIDTH, BufferedImage.TYPE_INT_ARGB);
         Graphics g = image.createGraphics();
@@ -283,6 +672,18 @@ public class MapUtils {
         return image;
     }
 
+    @SuppressWarnings("deprecation")
+    public static BufferedImage toImage(byte[] colors) {
+        BufferedImage image = new BufferedImage(MAP_WIDTH, MAP_WIDTH, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < colors.length; i++) {
+            byte color = colors[i];
+            if (color != MapPalette.TRANSPARENT) {
+                image.setRGB(i % MAP_WIDTH, i / MAP_WIDTH, MapPalette.getColor(color).getRGB());
+            }
+        }
+        return image;
+    }
+
     public static BufferedImage getSubImage(BufferedImage source, int x, int y) {
         int startX = x * MAP_WIDTH;
         int startY = y * MAP_WIDTH;
@@ -327,16 +728,23 @@ public class MapUtils {
         return -1;
     }
 
+    public static byte[] getColors(MapView mapView) {
+        try {
+            Object nmsWorldMap = (Object) CRAFT_MAP_VIEW_WORLD_MAP_GETTER.invokeExact((Object) mapView);
+            return (byte[]) (Object) NMS_WORLD_MAP_COLORS_GETTER.invokeExact(nmsWorldMap);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     public static void setColors(MapView mapView, byte[] colors) {
         if (colors.length != COLOR_ARRAY_LENGTH) {
             throw new IllegalArgumentException("colors array length must be 16384");
         }
         try {
-            Object craftMapView = craftMapViewClass.cast(mapView);
-            craftMapViewWorldMapField.setAccessible(true);
-            Object nmsWorldMap = craftMapViewWorldMapField.get(craftMapView);
-            nmsWorldColorsField.setAccessible(true);
-            nmsWorldColorsField.set(nmsWorldMap, colors);
+            Object nmsWorldMap = (Object) CRAFT_MAP_VIEW_WORLD_MAP_GETTER.invokeExact((Object) mapView);
+            NMS_WORLD_MAP_COLORS_SETTER.invokeExact(nmsWorldMap, (Object) colors);
         } catch (Throwable e) {
             e.printStackTrace();
         }
@@ -344,14 +752,11 @@ public class MapUtils {
 
     public static Set<Player> getViewers(MapView mapView) {
         try {
-            Object craftMapView = craftMapViewClass.cast(mapView);
-            craftMapViewWorldMapField.setAccessible(true);
-            Object nmsWorldMap = craftMapViewWorldMapField.get(craftMapView);
-            nmsWorldMapHumansField.setAccessible(true);
-            Map<?, ?> humansMap = (Map<?, ?>) nmsWorldMapHumansField.get(nmsWorldMap);
+            Object nmsWorldMap = (Object) CRAFT_MAP_VIEW_WORLD_MAP_GETTER.invokeExact((Object) mapView);
+            Map<?, ?> humansMap = (Map<?, ?>) (Object) NMS_WORLD_MAP_HUMANS_GETTER.invokeExact(nmsWorldMap);
             Set<Player> players = new HashSet<>(humansMap.size());
             for (Object obj : humansMap.keySet()) {
-                players.add((Player) nmsEntityHumanGetBukkitEntityMethod.invoke(obj));
+                players.add((Player) (Object) NMS_ENTITY_HUMAN_GET_BUKKIT_ENTITY.invokeExact(obj));
             }
             return players;
         } catch (Throwable e) {
@@ -443,8 +848,8 @@ public class MapUtils {
     public static Object toNMSMapIcon(MapCursor mapCursor) {
         try {
             Object iChat = mapCursor.getCaption() == null ? null : WrappedChatComponent.fromLegacyText(mapCursor.getCaption()).getHandle();
-            return nmsMapIconConstructor.newInstance(toNMSMapIconType(mapCursor.getType()), mapCursor.getX(), mapCursor.getY(), mapCursor.getDirection(), iChat);
-        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            return (Object) NMS_MAP_ICON_CONSTRUCTOR.invokeExact(toNMSMapIconType(mapCursor.getType()), (Object) mapCursor.getX(), (Object) mapCursor.getY(), (Object) mapCursor.getDirection(), iChat);
+        } catch (Throwable e) {
             e.printStackTrace();
         }
         return null;
@@ -463,10 +868,9 @@ public class MapUtils {
         if (nmsType == null) {
             return true;
         }
-        nmsMapIconTypeRenderOnFrameField.setAccessible(true);
         try {
-            return nmsMapIconTypeRenderOnFrameField.getBoolean(nmsType);
-        } catch (IllegalAccessException e) {
+            return (Boolean) (Object) NMS_MAP_ICON_TYPE_RENDER_ON_FRAME_GETTER.invokeExact(nmsType);
+        } catch (Throwable e) {
             e.printStackTrace();
         }
         return true;
@@ -525,13 +929,11 @@ public class MapUtils {
     @SuppressWarnings("unchecked")
     public static MutablePair<byte[], ArrayList<MapCursor>> bukkitRenderMap(MapView mapView, Player player) {
         try {
-            Object craftMapView = craftMapViewClass.cast(mapView);
-            Object craftPlayer = craftPlayerClass.cast(player);
-            Object craftRenderData = craftMapViewRenderMethod.invoke(craftMapView, craftPlayer);
-            byte[] buffer = (byte[]) craftRenderDataBufferField.get(craftRenderData);
-            ArrayList<MapCursor> cursors = (ArrayList<MapCursor>) craftRenderDataCursorsField.get(craftRenderData);
+            Object craftRenderData = (Object) CRAFT_MAP_VIEW_RENDER.invokeExact((Object) mapView, (Object) player);
+            byte[] buffer = (byte[]) (Object) CRAFT_RENDER_DATA_BUFFER_GETTER.invokeExact(craftRenderData);
+            ArrayList<MapCursor> cursors = (ArrayList<MapCursor>) (Object) CRAFT_RENDER_DATA_CURSORS_GETTER.invokeExact(craftRenderData);
             return new MutablePair<>(buffer, cursors);
-        } catch (IllegalAccessException | InvocationTargetException e) {
+        } catch (Throwable e) {
             e.printStackTrace();
         }
         return new MutablePair<>(new byte[COLOR_ARRAY_LENGTH], new ArrayList<>());